@@ -31,8 +31,10 @@ import android.system.OsConstants;
 import com.llamalab.safs.AccessDeniedException;
 import com.llamalab.safs.AtomicMoveNotSupportedException;
 import com.llamalab.safs.CopyOption;
+import com.llamalab.safs.CopyProgress;
 import com.llamalab.safs.DirectoryNotEmptyException;
 import com.llamalab.safs.DirectoryStream;
+import com.llamalab.safs.ExtendedOpenOption;
 import com.llamalab.safs.FileAlreadyExistsException;
 import com.llamalab.safs.FileStore;
 import com.llamalab.safs.FileSystem;
@@ -53,6 +55,7 @@ import com.llamalab.safs.internal.AbstractDirectoryStream;
 import com.llamalab.safs.internal.BasicFileAttributeValue;
 import com.llamalab.safs.internal.CompleteBasicFileAttributes;
 import com.llamalab.safs.internal.FileType;
+import com.llamalab.safs.internal.PipelinedTransfer;
 import com.llamalab.safs.internal.SearchSet;
 import com.llamalab.safs.internal.Utils;
 import com.llamalab.safs.channels.SeekableByteChannel;
@@ -67,6 +70,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.net.URI;
+import java.nio.channels.Channels;
 import java.util.Map;
 import java.util.Set;
 
@@ -282,6 +286,7 @@ public final class AndroidFileSystemProvider extends JavaFileSystemProvider {
   @Override
   public void delete (Path path) throws IOException {
     checkPath(path);
+    invalidateCache(path);
     if (Build.VERSION_CODES.LOLLIPOP <= Build.VERSION.SDK_INT) {
       final AndroidFileSystem fs = (AndroidFileSystem)path.getFileSystem();
       final Uri uri = fs.getTreeDocumentUri(fs.toDocumentPath(path));
@@ -295,16 +300,21 @@ public final class AndroidFileSystemProvider extends JavaFileSystemProvider {
 
   @Override
   public void copy (Path source, Path target, CopyOption... options) throws IOException {
-    if (Build.VERSION_CODES.LOLLIPOP <= Build.VERSION.SDK_INT)
+    if (Build.VERSION_CODES.LOLLIPOP <= Build.VERSION.SDK_INT) {
+      invalidateCache(target);
       transfer(source, target, false, new SearchSet<>(options));
+    }
     else
       super.copy(source, target, options);
   }
 
   @Override
   public void move (Path source, Path target, CopyOption...options)throws IOException {
-    if (Build.VERSION_CODES.LOLLIPOP <= Build.VERSION.SDK_INT)
+    if (Build.VERSION_CODES.LOLLIPOP <= Build.VERSION.SDK_INT) {
+      invalidateCache(source);
+      invalidateCache(target);
       transfer(source, target, true, new SearchSet<>(options));
+    }
     else
       super.move(source, target, options);
   }
@@ -377,12 +387,13 @@ public final class AndroidFileSystemProvider extends JavaFileSystemProvider {
         createDirectory(targetFile);
     }
     else {
+      final CopyProgress progress = Utils.findOption(options, CopyProgress.class);
       if (targetParentUri != null) {
         targetUri = createDocument(fs, target, targetParentUri, targetName, null);
-        copyDocument(fs, sourceFile, targetFile, targetUri);
+        copyDocument(fs, sourceFile, target, targetUri, sourceAttrs.size(), progress);
       }
       else
-        copyFile(sourceFile, targetFile);
+        copyFile(sourceFile, targetFile, progress);
     }
     try {
       if (targetUri == null && options.contains(StandardCopyOption.COPY_ATTRIBUTES))
@@ -412,7 +423,8 @@ public final class AndroidFileSystemProvider extends JavaFileSystemProvider {
   public InputStream newInputStream (Path path, OpenOption... options) throws IOException {
     if (Build.VERSION_CODES.LOLLIPOP > Build.VERSION.SDK_INT)
       return super.newInputStream(path, options);
-    return newInputStream(path, (options.length == 0) ? DEFAULT_NEW_INPUT_STREAM_OPTIONS : new SearchSet<>(options));
+    final Set<? extends OpenOption> set = (options.length == 0) ? DEFAULT_NEW_INPUT_STREAM_OPTIONS : new SearchSet<>(options);
+    return wrapInputStream(set, newInputStream(path, set));
   }
 
   private InputStream newInputStream (Path path, Set<? extends OpenOption> options) throws IOException {
@@ -425,12 +437,16 @@ public final class AndroidFileSystemProvider extends JavaFileSystemProvider {
   public OutputStream newOutputStream (Path path, OpenOption... options) throws IOException {
     if (Build.VERSION_CODES.LOLLIPOP > Build.VERSION.SDK_INT)
       return super.newOutputStream(path, options);
-    return newOutputStream(path, (options.length == 0) ? DEFAULT_NEW_OUTPUT_STREAM_OPTIONS : new SearchSet<>(options));
+    final Set<? extends OpenOption> set = (options.length == 0) ? DEFAULT_NEW_OUTPUT_STREAM_OPTIONS : new SearchSet<>(options);
+    if (isPreallocated(set))
+      return wrapOutputStream(set, Channels.newOutputStream(newByteChannel(path, set)));
+    return wrapOutputStream(set, newOutputStream(path, set));
   }
 
   private OutputStream newOutputStream (Path path, Set<? extends OpenOption> options) throws IOException {
     if (!options.contains(StandardOpenOption.WRITE))
       throw new IllegalArgumentException();
+    invalidateCache(path);
     return new ParcelFileDescriptor.AutoCloseOutputStream(newParcelFileDescriptor(path, options));
   }
 
@@ -438,7 +454,26 @@ public final class AndroidFileSystemProvider extends JavaFileSystemProvider {
   public SeekableByteChannel newByteChannel (Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
     if (Build.VERSION_CODES.LOLLIPOP > Build.VERSION.SDK_INT)
       return super.newByteChannel(path, options, attrs);
-    return new SeekableByteChannelWrapper(newParcelFileDescriptor(path, options), toModeFlags(options));
+    if (options.contains(StandardOpenOption.WRITE) && !options.contains(ExtendedOpenOption.CACHED))
+      invalidateCache(path);
+    return wrapByteChannel(path, options, new SeekableByteChannelWrapper(newParcelFileDescriptor(path, options), toModeFlags(options)));
+  }
+
+  /**
+   * Uses {@code posix_fallocate}, when supported by the file-system.
+   */
+  @Override
+  protected void preallocate (SeekableByteChannel channel, long size) throws IOException {
+    if (channel instanceof SeekableByteChannelWrapper) {
+      try {
+        ((SeekableByteChannelWrapper)channel).allocate(size);
+        return;
+      }
+      catch (IOException e) {
+        // not supported, i.e. FUSE or sdcardfs
+      }
+    }
+    super.preallocate(channel, size);
   }
 
   public ParcelFileDescriptor newParcelFileDescriptor (Path path, OpenOption...options) throws IOException {
@@ -837,7 +872,10 @@ public final class AndroidFileSystemProvider extends JavaFileSystemProvider {
     }
   }
 
-  private void copyDocument (AndroidFileSystem fs, File sourceFile, File targetFile, Uri targetUri) throws IOException {
+  /**
+   * Deletes the partial target upon failure.
+   */
+  private void copyDocument (AndroidFileSystem fs, File sourceFile, Path target, Uri targetUri, long size, CopyProgress progress) throws IOException {
     final InputStream in;
     try {
       in = new FileInputStream(sourceFile);
@@ -852,10 +890,10 @@ public final class AndroidFileSystemProvider extends JavaFileSystemProvider {
       }
       catch (RuntimeException e) {
         // BUG: DocumentProviders throws undocumented exceptions
-        throw new FileSystemException(targetFile.toString(), null, e.getMessage());
+        throw new FileSystemException(target.toString(), null, e.getMessage());
       }
       try {
-        Utils.transfer(in, out);
+        PipelinedTransfer.transfer(in, out, size, progress);
       }
       finally {
         //noinspection ConstantConditions
@@ -863,7 +901,13 @@ public final class AndroidFileSystemProvider extends JavaFileSystemProvider {
       }
     }
     catch (IOException e) {
-      throw toProperException(e, sourceFile.toString(), targetFile.toString());
+      try {
+        deleteDocument(fs, target, targetUri, true);
+      }
+      catch (Throwable t) {
+        // ignore
+      }
+      throw toProperException(e, sourceFile.toString(), target.toString());
     }
     finally {
       in.close();
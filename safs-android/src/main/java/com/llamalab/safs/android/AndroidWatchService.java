@@ -61,6 +61,8 @@ final class AndroidWatchService extends AbstractWatchService {
     if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS))
       throw new NoSuchFileException(path.toString());
     final AndroidWatchKey key = new AndroidWatchKey(this, path, kinds);
+    key.applyModifiers(kinds, modifiers);
+    key.observe(key.observedKinds(kinds));
     synchronized (observers) {
       PathObserver observer = observers.get(path);
       if (observer == null)
@@ -167,7 +169,7 @@ final class AndroidWatchService extends AbstractWatchService {
 
   private static final class AndroidWatchKey extends AbstractWatchKey {
 
-    private final WatchEvent.Kind<?>[] kinds;
+    private WatchEvent.Kind<?>[] kinds;
     private volatile int mask;
 
     public AndroidWatchKey (AbstractWatchService service, Watchable watchable, WatchEvent.Kind<?>[] kinds) {
@@ -179,6 +181,11 @@ final class AndroidWatchService extends AbstractWatchService {
       this.kinds = kinds;
     }
 
+    void observe (WatchEvent.Kind<?>[] kinds) {
+      this.kinds = kinds;
+      this.mask = AndroidWatchEventKinds.mask(kinds);
+    }
+
     @Override
     public boolean isValid () {
       return mask != 0 && super.isValid();
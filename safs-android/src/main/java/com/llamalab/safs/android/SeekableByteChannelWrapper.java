@@ -136,6 +136,144 @@ final class SeekableByteChannelWrapper extends AbstractInterruptibleChannel impl
     return bytesWritten;
   }
 
+  @Override
+  public int read (ByteBuffer dst, long position) throws IOException {
+    if (position < 0)
+      throw new IllegalArgumentException();
+    checkOpen();
+    checkReadable();
+    final int bufferPosition = dst.position();
+    if (dst.limit() <= bufferPosition)
+      return 0;
+    int bytesRead = 0;
+    boolean completed = false;
+    try {
+      begin();
+      bytesRead = Os.pread(fd, dst, position);
+      if (bytesRead == 0)
+        bytesRead = -1;
+      completed = true;
+    }
+    catch (ErrnoException e) {
+      if (OsConstants.EAGAIN != e.errno) {
+        //noinspection UnnecessaryInitCause
+        throw (IOException)new IOException(e.getMessage()).initCause(e);
+      }
+      bytesRead = 0;
+    }
+    finally {
+      end(completed && bytesRead >= 0);
+    }
+    // BUG: Lollipop doesn't update position
+    if (bytesRead > 0)
+      dst.position(bufferPosition + bytesRead);
+    return bytesRead;
+  }
+
+  @Override
+  public int write (ByteBuffer src, long position) throws IOException {
+    if (position < 0)
+      throw new IllegalArgumentException();
+    checkOpen();
+    checkWritable();
+    final int bufferPosition = src.position();
+    if (src.limit() <= bufferPosition)
+      return 0;
+    int bytesWritten;
+    boolean completed = false;
+    try {
+      begin();
+      try {
+        bytesWritten = Os.pwrite(fd, src, position);
+      }
+      catch (ErrnoException e) {
+        //noinspection UnnecessaryInitCause
+        throw (IOException)new IOException(e.getMessage()).initCause(e);
+      }
+      completed = true;
+    }
+    finally {
+      end(completed);
+    }
+    // BUG: Lollipop doesn't update position
+    if (bytesWritten > 0)
+      src.position(bufferPosition + bytesWritten);
+    return bytesWritten;
+  }
+
+  @Override
+  public long read (ByteBuffer[] dsts) throws IOException {
+    return read(dsts, 0, dsts.length);
+  }
+
+  @Override
+  public long read (ByteBuffer[] dsts, int offset, int length) throws IOException {
+    if ((offset | length) < 0 || offset > dsts.length - length)
+      throw new IndexOutOfBoundsException();
+    checkOpen();
+    checkReadable();
+    final IoVector iov = new IoVector(dsts, offset, length, false);
+    if (iov.isEmpty())
+      return 0;
+    long bytesRead = 0;
+    boolean completed = false;
+    try {
+      begin();
+      bytesRead = Os.readv(fd, iov.buffers, iov.offsets, iov.byteCounts);
+      if (bytesRead == 0)
+        bytesRead = -1;
+      completed = true;
+    }
+    catch (ErrnoException e) {
+      if (OsConstants.EAGAIN != e.errno) {
+        //noinspection UnnecessaryInitCause
+        throw (IOException)new IOException(e.getMessage()).initCause(e);
+      }
+      bytesRead = 0;
+    }
+    finally {
+      end(completed && bytesRead >= 0);
+    }
+    if (bytesRead > 0)
+      iov.transferred(bytesRead);
+    return bytesRead;
+  }
+
+  @Override
+  public long write (ByteBuffer[] srcs) throws IOException {
+    return write(srcs, 0, srcs.length);
+  }
+
+  @Override
+  public long write (ByteBuffer[] srcs, int offset, int length) throws IOException {
+    if ((offset | length) < 0 || offset > srcs.length - length)
+      throw new IndexOutOfBoundsException();
+    checkOpen();
+    checkWritable();
+    final IoVector iov = new IoVector(srcs, offset, length, true);
+    if (iov.isEmpty())
+      return 0;
+    long bytesWritten;
+    boolean completed = false;
+    try {
+      begin();
+      try {
+        bytesWritten = Os.writev(fd, iov.buffers, iov.offsets, iov.byteCounts);
+      }
+      catch (ErrnoException e) {
+        //noinspection UnnecessaryInitCause
+        throw (IOException)new IOException(e.getMessage()).initCause(e);
+      }
+      completed = true;
+    }
+    finally {
+      end(completed);
+    }
+    if (bytesWritten > 0)
+      iov.transferred(bytesWritten);
+    return bytesWritten;
+  }
+
   @Override
   public long position () throws IOException {
     checkOpen();
@@ -195,4 +333,92 @@ final class SeekableByteChannelWrapper extends AbstractInterruptibleChannel impl
     return this;
   }
 
+  @Override
+  public void force (boolean metaData) throws IOException {
+    checkOpen();
+    try {
+      if (metaData)
+        Os.fsync(fd);
+      else
+        Os.fdatasync(fd);
+    }
+    catch (ErrnoException e) {
+      //noinspection UnnecessaryInitCause
+      throw (IOException)new IOException(e.getMessage()).initCause(e);
+    }
+  }
+
+  /**
+   * Allocate disk space up to {@code size}, extending the file if necessary.
+   */
+  public void allocate (long size) throws IOException {
+    checkOpen();
+    checkWritable();
+    try {
+      Os.posix_fallocate(fd, 0, size);
+    }
+    catch (ErrnoException e) {
+      //noinspection UnnecessaryInitCause
+      throw (IOException)new IOException(e.getMessage()).initCause(e);
+    }
+  }
+
+  /**
+   * Arguments for {@link Os#readv} and {@link Os#writev}, which accept direct buffers and arrays
+   * but doesn't update buffer positions.
+   * https://android.googlesource.com/platform/libcore/+/marshmallow-release/luni/src/main/java/java/nio/IoVec.java
+   */
+  private static final class IoVector {
+
+    final ByteBuffer[] byteBuffers;
+    final Object[] buffers;
+    final int[] offsets;
+    final int[] byteCounts;
+    private long total;
+
+    public IoVector (ByteBuffer[] byteBuffers, int offset, int length, boolean gather) {
+      this.byteBuffers = new ByteBuffer[length];
+      this.buffers = new Object[length];
+      this.offsets = new int[length];
+      this.byteCounts = new int[length];
+      for (int i = 0; i < length; ++i) {
+        final ByteBuffer b = byteBuffers[offset + i];
+        if (!gather && b.isReadOnly())
+          throw new IllegalArgumentException("Read-only buffer");
+        this.byteBuffers[i] = b;
+        final int remaining = b.remaining();
+        if (b.isDirect()) {
+          buffers[i] = b;
+          offsets[i] = b.position();
+        }
+        else if (b.hasArray()) {
+          buffers[i] = b.array();
+          offsets[i] = b.arrayOffset() + b.position();
+        }
+        else {
+          // read-only heap buffer
+          final byte[] copy = new byte[remaining];
+          b.duplicate().get(copy);
+          buffers[i] = copy;
+        }
+        byteCounts[i] = remaining;
+        total += remaining;
+      }
+    }
+
+    public boolean isEmpty () {
+      return total == 0;
+    }
+
+    public void transferred (long count) {
+      for (int i = 0; i < byteBuffers.length && count > 0; ++i) {
+        final ByteBuffer b = byteBuffers[i];
+        final int n = (int)Math.min(byteCounts[i], count);
+        b.position(b.position() + n);
+        count -= n;
+      }
+    }
+
+  } // class IoVector
+
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-standard {@link CopyOption} copying files in chunks, reporting progress after each and
+ * checking for cancellation before each. A cancelled copy throws {@link CopyCancelledException}
+ * and the partial target is deleted, except with {@link ExtendedCopyOption#RESUMABLE} or
+ * {@link ExtendedCopyOption#RESUMABLE_VERIFIED}, where it's kept with its checkpoint so the copy
+ * can be resumed.
+ * <p>
+ * Without a fixed chunk size, it's adapted to the observed throughput so each chunk takes
+ * about {@link #TARGET_CHUNK_MILLIS}. An instance should only be used for one copy at a time.
+ */
+public class CopyProgress implements CopyOption, Comparable<CopyProgress> {
+
+  public static final int MIN_CHUNK_SIZE = 64 * 1024;
+  public static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+  public static final long TARGET_CHUNK_MILLIS = 100;
+  private static final int INITIAL_CHUNK_SIZE = 1024 * 1024;
+
+  private final boolean adaptive;
+  private volatile boolean cancelled;
+  private int chunkSize;
+
+  public CopyProgress () {
+    this.adaptive = true;
+    this.chunkSize = INITIAL_CHUNK_SIZE;
+  }
+
+  public CopyProgress (int chunkSize) {
+    if (chunkSize <= 0)
+      throw new IllegalArgumentException("chunkSize");
+    this.adaptive = false;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Called by the copying thread after each chunk.
+   * @param total size of source, or -1 if unknown.
+   */
+  protected void onProgress (long copied, long total) {}
+
+  /**
+   * May be called from any thread.
+   */
+  public void cancel () {
+    cancelled = true;
+  }
+
+  public boolean isCancelled () {
+    return cancelled;
+  }
+
+  public int chunkSize () {
+    return chunkSize;
+  }
+
+  /**
+   * Called by providers before each chunk.
+   */
+  public final void checkCancelled () throws CopyCancelledException {
+    if (cancelled)
+      throw new CopyCancelledException();
+  }
+
+  /**
+   * Called by providers after each chunk.
+   */
+  public final void chunkCopied (long copied, long total, long chunk, long elapsedNanos) {
+    if (adaptive && chunk > 0) {
+      final long target = TimeUnit.MILLISECONDS.toNanos(TARGET_CHUNK_MILLIS);
+      final double desired = (double)chunk * target / Math.max(elapsedNanos, 1);
+      chunkSize = (int)Math.max(MIN_CHUNK_SIZE, Math.min((chunkSize + desired) / 2, MAX_CHUNK_SIZE));
+    }
+    onProgress(copied, total);
+  }
+
+  @Override
+  public int compareTo (CopyProgress other) {
+    final int lhs = System.identityHashCode(this);
+    final int rhs = System.identityHashCode(other);
+    return (lhs < rhs) ? -1 : ((lhs == rhs) ? 0 : 1);
+  }
+
+}
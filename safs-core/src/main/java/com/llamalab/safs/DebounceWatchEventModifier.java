@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-standard {@link WatchEvent.Modifier} holding back events until the same kind and context
+ * has been quiet for {@link #quietPeriod(TimeUnit) quiet period}, but no longer than {@link #maxLatency(TimeUnit) max latency} since first seen.
+ * Repeated events are delivered as one, with an accumulated {@link WatchEvent#count}.
+ */
+public final class DebounceWatchEventModifier implements WatchEvent.Modifier {
+
+  private final long quietPeriod;
+  private final long maxLatency;
+
+  private DebounceWatchEventModifier (long quietPeriod, long maxLatency) {
+    this.quietPeriod = quietPeriod;
+    this.maxLatency = maxLatency;
+  }
+
+  public static DebounceWatchEventModifier of (long quietPeriod, long maxLatency, TimeUnit unit) {
+    if (unit == null)
+      throw new NullPointerException("unit");
+    if (quietPeriod <= 0)
+      throw new IllegalArgumentException("quietPeriod");
+    if (maxLatency < quietPeriod)
+      throw new IllegalArgumentException("maxLatency");
+    return new DebounceWatchEventModifier(unit.toNanos(quietPeriod), unit.toNanos(maxLatency));
+  }
+
+  public static DebounceWatchEventModifier of (long quietPeriod, TimeUnit unit) {
+    return of(quietPeriod, quietPeriod * 10, unit);
+  }
+
+  @Override
+  public String name () {
+    return "DEBOUNCE";
+  }
+
+  public long quietPeriod (TimeUnit unit) {
+    return unit.convert(quietPeriod, TimeUnit.NANOSECONDS);
+  }
+
+  public long maxLatency (TimeUnit unit) {
+    return unit.convert(maxLatency, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public String toString () {
+    return name()+"[quietPeriod="+quietPeriod(TimeUnit.MILLISECONDS)+"ms, maxLatency="+maxLatency(TimeUnit.MILLISECONDS)+"ms]";
+  }
+
+}
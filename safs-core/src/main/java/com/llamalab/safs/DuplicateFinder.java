@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+import com.llamalab.safs.attributes.BasicFileAttributes;
+import com.llamalab.safs.channels.SeekableByteChannel;
+import com.llamalab.safs.channels.SeekableByteChannels;
+import com.llamalab.safs.internal.BufferPool;
+import com.llamalab.safs.internal.Digests;
+import com.llamalab.safs.internal.LongHashMap;
+import com.llamalab.safs.internal.Utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds groups of regular files with identical content.
+ * <p>
+ * Files are bucketed by size, and files sharing a file key, i.e. hard links, are grouped without
+ * hashing. Remaining collisions are split by a digest of the head and tail blocks, and only files
+ * still colliding are fully hashed, through {@link Files#digest} and its cache. Hashing runs on
+ * {@code parallelism} threads with pooled buffers. Files failing to read are skipped.
+ */
+public final class DuplicateFinder {
+
+  public static final int PARTIAL_BLOCK_SIZE = 4096;
+  private static final String ALGORITHM = "SHA-256";
+
+  private final int parallelism;
+  private final long minSize;
+
+  public DuplicateFinder () {
+    this(Runtime.getRuntime().availableProcessors(), 1);
+  }
+
+  /**
+   * @param minSize smaller files are ignored.
+   */
+  public DuplicateFinder (int parallelism, long minSize) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism");
+    this.parallelism = parallelism;
+    this.minSize = minSize;
+  }
+
+  /**
+   * @return groups of at least two paths with identical content.
+   */
+  public List<List<Path>> find (Path start) throws IOException {
+    final LongHashMap<List<Candidate>> bySize = new LongHashMap<List<Candidate>>(1024);
+    Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile (Path file, BasicFileAttributes attrs) {
+        if (attrs.isRegularFile() && attrs.size() >= minSize) {
+          List<Candidate> bucket = bySize.get(attrs.size());
+          if (bucket == null)
+            bySize.put(attrs.size(), bucket = new ArrayList<Candidate>(2));
+          add(bucket, file, attrs);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+      @Override
+      public FileVisitResult visitFileFailed (Path file, IOException e) {
+        return FileVisitResult.CONTINUE;
+      }
+      @Override
+      public FileVisitResult postVisitDirectory (Path dir, IOException e) {
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    final List<List<Path>> groups = new ArrayList<List<Path>>();
+    final List<List<Candidate>> collisions = new ArrayList<List<Candidate>>();
+    for (final List<Candidate> bucket : bySize.values()) {
+      if (bucket.size() > 1)
+        collisions.add(bucket);
+      else if (bucket.get(0).paths.size() > 1)
+        groups.add(bucket.get(0).paths);
+    }
+    // head and tail
+    hashAll(collisions, false);
+    final List<List<Candidate>> remaining = new ArrayList<List<Candidate>>();
+    for (final List<Candidate> bucket : collisions) {
+      for (final List<Candidate> group : groupByDigest(bucket)) {
+        if (group.size() == 1 && group.get(0).paths.size() > 1)
+          groups.add(group.get(0).paths);
+        else if (group.size() > 1) {
+          if (group.get(0).size <= 2 * PARTIAL_BLOCK_SIZE)
+            groups.add(paths(group));
+          else
+            remaining.add(group);
+        }
+      }
+    }
+    // full
+    hashAll(remaining, true);
+    for (final List<Candidate> bucket : remaining) {
+      for (final List<Candidate> group : groupByDigest(bucket)) {
+        if (group.size() > 1 || group.get(0).paths.size() > 1)
+          groups.add(paths(group));
+      }
+    }
+    return groups;
+  }
+
+  private static void add (List<Candidate> bucket, Path file, BasicFileAttributes attrs) {
+    final Object fileKey = attrs.fileKey();
+    if (fileKey != null) {
+      for (final Candidate c : bucket) {
+        if (fileKey.equals(c.fileKey)) {
+          c.paths.add(file);
+          return;
+        }
+      }
+    }
+    bucket.add(new Candidate(file, attrs.size(), fileKey));
+  }
+
+  private static List<List<Candidate>> groupByDigest (List<Candidate> bucket) {
+    final Map<ByteBuffer, List<Candidate>> byDigest = new HashMap<ByteBuffer, List<Candidate>>();
+    for (final Candidate c : bucket) {
+      if (c.digest == null)
+        continue;
+      final ByteBuffer key = ByteBuffer.wrap(c.digest);
+      List<Candidate> group = byDigest.get(key);
+      if (group == null)
+        byDigest.put(key, group = new ArrayList<Candidate>(2));
+      group.add(c);
+    }
+    return new ArrayList<List<Candidate>>(byDigest.values());
+  }
+
+  private static List<Path> paths (List<Candidate> group) {
+    final List<Path> paths = new ArrayList<Path>();
+    for (final Candidate c : group)
+      paths.addAll(c.paths);
+    return paths;
+  }
+
+  private void hashAll (List<List<Candidate>> buckets, final boolean full) throws IOException {
+    final List<Candidate> candidates = new ArrayList<Candidate>();
+    for (final List<Candidate> bucket : buckets)
+      candidates.addAll(bucket);
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicBoolean aborted = new AtomicBoolean();
+    final List<Future<Void>> futures = new ArrayList<Future<Void>>(parallelism);
+    try {
+      for (int w = Math.min(parallelism, candidates.size()); w > 0; --w) {
+        futures.add(Utils.executor().submit(new Callable<Void>() {
+          @Override
+          public Void call () throws Exception {
+            final MessageDigest md = Digests.newMessageDigest(ALGORITHM);
+            for (int i; !aborted.get() && (i = next.getAndIncrement()) < candidates.size();) {
+              final Candidate c = candidates.get(i);
+              byte[] digest;
+              try {
+                digest = full ? Files.digest(c.paths.get(0), ALGORITHM) : partialDigest(c, md);
+              }
+              catch (InterruptedIOException e) {
+                throw e;
+              }
+              catch (IOException e) {
+                digest = null;
+              }
+              c.digest = digest;
+            }
+            return null;
+          }
+        }));
+      }
+      Utils.awaitAll(futures, aborted);
+    }
+    finally {
+      aborted.set(true);
+      Utils.awaitQuietly(futures);
+    }
+  }
+
+  private static byte[] partialDigest (Candidate c, MessageDigest md) throws IOException {
+    final BufferPool pool = BufferPool.getInstance();
+    final ByteBuffer buf = pool.acquire(2 * PARTIAL_BLOCK_SIZE, false);
+    try {
+      final SeekableByteChannel channel = Files.newByteChannel(c.paths.get(0), StandardOpenOption.READ);
+      try {
+        if (c.size <= 2 * PARTIAL_BLOCK_SIZE) {
+          buf.limit((int)c.size);
+          SeekableByteChannels.readFully(channel, buf, 0);
+        }
+        else {
+          buf.limit(PARTIAL_BLOCK_SIZE);
+          SeekableByteChannels.readFully(channel, buf, 0);
+          buf.limit(2 * PARTIAL_BLOCK_SIZE);
+          SeekableByteChannels.readFully(channel, buf, c.size - PARTIAL_BLOCK_SIZE);
+        }
+      }
+      finally {
+        channel.close();
+      }
+      md.update(buf.array(), buf.arrayOffset(), buf.position());
+      return md.digest();
+    }
+    finally {
+      pool.release(buf);
+    }
+  }
+
+  private static final class Candidate {
+
+    final List<Path> paths = new ArrayList<Path>(1);
+    final long size;
+    final Object fileKey;
+    byte[] digest;
+
+    Candidate (Path path, long size, Object fileKey) {
+      this.paths.add(path);
+      this.size = size;
+      this.fileKey = fileKey;
+    }
+
+  } // class Candidate
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+/**
+ * Non-standard {@link CopyOption}, only supported by {@link Files#copy(Path, Path, CopyOption...)}
+ * and {@link Files#move}.
+ */
+public enum ExtendedCopyOption implements CopyOption {
+  /**
+   * Copy a regular file in chunks, recording progress in a checkpoint file next to the target,
+   * so an interrupted copy can be resumed by copying again with the same option. A move is a
+   * rename when possible.
+   * @see com.llamalab.safs.internal.ResumableCopy
+   */
+  RESUMABLE,
+  /**
+   * Like {@link #RESUMABLE}, but also record a checksum of each chunk, and verify the already
+   * copied chunks when resuming.
+   */
+  RESUMABLE_VERIFIED,
+  /**
+   * Copy a regular file as concurrent segments into a temporary file, atomically moved to the
+   * target when done. Ignored by {@link Files#move}.
+   * @see com.llamalab.safs.internal.ParallelCopy
+   */
+  PARALLEL,
+  /**
+   * Update an existing regular file in place, only writing the blocks that differ from the source.
+   * Requires {@link StandardCopyOption#REPLACE_EXISTING}. Ignored by {@link Files#move}, and when
+   * the target isn't a regular file.
+   * @see com.llamalab.safs.internal.DeltaCopy
+   */
+  DELTA,
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+/**
+ * Non-standard {@link OpenOption}, ignored by providers not supporting them.
+ */
+public enum ExtendedOpenOption implements OpenOption {
+  /**
+   * Serve reads from a block cache shared by all channels opened with this option on the same file.
+   * Only for {@link Files#newByteChannel}.
+   * @see com.llamalab.safs.internal.BlockCache
+   */
+  CACHED,
+  /**
+   * Buffer reads and writes, for streams too. Default when the system property
+   * {@code com.llamalab.safs.buffered} is {@code true}.
+   * @see com.llamalab.safs.channels.BufferedSeekableByteChannel
+   */
+  BUFFERED,
+  /**
+   * Hint that the file will be read sequentially, reads ahead with a growing window.
+   * Only for {@link Files#newByteChannel}.
+   * @see com.llamalab.safs.internal.ReadAheadSeekableByteChannel
+   */
+  SEQUENTIAL,
+  /**
+   * Hint that the file will be read at random positions, no reading ahead.
+   */
+  RANDOM,
+  /**
+   * Hint that the file will be needed soon, like {@link #SEQUENTIAL} but prefetch in the background.
+   */
+  WILL_NEED,
+}
@@ -20,11 +20,24 @@ import com.llamalab.safs.attributes.BasicFileAttributes;
 import com.llamalab.safs.attributes.FileAttribute;
 import com.llamalab.safs.attributes.FileAttributeView;
 import com.llamalab.safs.attributes.FileTime;
+import com.llamalab.safs.channels.ByteRange;
+import com.llamalab.safs.channels.FollowingByteChannel;
+import com.llamalab.safs.channels.SeekableByteChannel;
+import com.llamalab.safs.channels.SeekableByteChannels;
 import com.llamalab.safs.internal.BasicFileAttribute;
 import com.llamalab.safs.internal.DefaultFileSystem;
+import com.llamalab.safs.internal.DeltaCopy;
+import com.llamalab.safs.internal.DigestCache;
+import com.llamalab.safs.internal.Digests;
+import com.llamalab.safs.internal.LineReader;
+import com.llamalab.safs.internal.LineWriter;
+import com.llamalab.safs.internal.Mappable;
+import com.llamalab.safs.internal.Mismatch;
+import com.llamalab.safs.internal.ParallelCopy;
+import com.llamalab.safs.internal.PipelinedTransfer;
+import com.llamalab.safs.internal.ResumableCopy;
 import com.llamalab.safs.internal.SearchSet;
 import com.llamalab.safs.internal.Utils;
-import com.llamalab.safs.channels.SeekableByteChannel;
 import com.llamalab.safs.spi.FileSystemProvider;
 import com.llamalab.safs.spi.FileTypeDetector;
 
@@ -36,15 +49,18 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public final class Files {
 
@@ -186,16 +202,119 @@ public final class Files {
 
   }
 
+  /**
+   * Reads the size when opened, so a file growing meanwhile isn't read beyond that.
+   */
   public static byte[] readAllBytes (Path path) throws IOException {
-    final InputStream in = newInputStream(path);
+    final SeekableByteChannel channel = newByteChannel(path, StandardOpenOption.READ);
+    try {
+      return Utils.readAllBytes(channel);
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Non-standard, read all bytes into a heap buffer, or a read-only memory-mapping if {@code map}
+   * and supported by the provider.
+   */
+  public static ByteBuffer readByteBuffer (Path path, boolean map) throws IOException {
+    final SeekableByteChannel channel = newByteChannel(path, StandardOpenOption.READ);
+    try {
+      if (map && channel instanceof Mappable) {
+        final long size = channel.size();
+        if (size > 0 && size <= Integer.MAX_VALUE)
+          return ((Mappable)channel).map(0, size);
+      }
+      return ByteBuffer.wrap(Utils.readAllBytes(channel));
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Non-standard, digest of the file content, cached while the file is unchanged.
+   * @see DigestCache
+   */
+  public static byte[] digest (Path path, String algorithm) throws IOException {
+    return digest(path, algorithm, false);
+  }
+
+  /**
+   * @param tree hash chunks in parallel, with a different result.
+   * @see Digests
+   */
+  public static byte[] digest (Path path, String algorithm, boolean tree) throws IOException {
+    return DigestCache.getInstance().digest(path, algorithm, tree);
+  }
+
+  /**
+   * Non-standard, like Java 12.
+   * @return position of the first mismatch, the smaller size if one is a prefix of the other, or -1 if equal.
+   */
+  public static long mismatch (Path path, Path path2) throws IOException {
+    return Mismatch.mismatch(path, path2);
+  }
+
+  /**
+   * Non-standard, faster than {@link #mismatch} when only equality matters.
+   */
+  public static boolean isSameContent (Path path, Path path2) throws IOException {
+    return Mismatch.isSameContent(path, path2);
+  }
+
+  public static List<String> readAllLines (Path path) throws IOException {
+    return readAllLines(path, Utils.UTF_8);
+  }
+
+  public static List<String> readAllLines (Path path, Charset charset) throws IOException {
+    final LineStream lines = lines(path, charset);
+    try {
+      final List<String> result = new ArrayList<String>();
+      for (String line; (line = lines.readLine()) != null;)
+        result.add(line);
+      return result;
+    }
+    finally {
+      lines.close();
+    }
+  }
+
+  /**
+   * Non-standard, lazily read lines, decoded directly from the channel or a memory-mapping of large files.
+   */
+  public static LineStream lines (Path path) throws IOException {
+    return lines(path, Utils.UTF_8);
+  }
+
+  public static LineStream lines (Path path, Charset charset) throws IOException {
+    final SeekableByteChannel channel = newByteChannel(path, StandardOpenOption.READ);
+    try {
+      return new LineReader(channel, charset);
+    }
+    catch (IOException e) {
+      Utils.closeQuietly(channel);
+      throw e;
+    }
+    catch (RuntimeException e) {
+      Utils.closeQuietly(channel);
+      throw e;
+    }
+  }
+
+  /**
+   * Non-standard, read multiple ranges with as few reads as possible.
+   * @see SeekableByteChannels#readRanges(SeekableByteChannel, List, int)
+   */
+  public static List<ByteBuffer> readRanges (Path path, List<ByteRange> ranges) throws IOException {
+    final SeekableByteChannel channel = newByteChannel(path, StandardOpenOption.READ);
     try {
-      final long size = size(path);
-      if (size > Integer.MAX_VALUE)
-        throw new OutOfMemoryError("Array size exceeded");
-      return Utils.readAllBytes(in, (int)size);
+      return SeekableByteChannels.readRanges(channel, ranges);
     }
     finally {
-      in.close();
+      channel.close();
     }
   }
 
@@ -210,6 +329,21 @@ public final class Files {
     return path;
   }
 
+  public static Path write (Path path, Iterable<? extends CharSequence> lines, OpenOption... options) throws IOException {
+    return write(path, lines, Utils.UTF_8, options);
+  }
+
+  public static Path write (Path path, Iterable<? extends CharSequence> lines, Charset charset, OpenOption... options) throws IOException {
+    final OutputStream out = newOutputStream(path, options);
+    try {
+      LineWriter.write(out, lines, charset);
+    }
+    finally {
+      out.close();
+    }
+    return path;
+  }
+
   /**
    * Does not delete target upon failure.
    */
@@ -224,7 +358,7 @@ public final class Files {
     }
     final OutputStream out = newOutputStream(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
     try {
-      return Utils.transfer(in, out);
+      return Utils.transfer(in, out, -1, Utils.findOption(Arrays.asList(options), CopyProgress.class));
     }
     finally {
       out.close();
@@ -250,6 +384,23 @@ public final class Files {
   }
 
   private static Path transfer (Path source, Path target, boolean move, CopyOption[] options) throws IOException {
+    for (final CopyOption option : options) {
+      if ((ExtendedCopyOption.RESUMABLE == option || ExtendedCopyOption.RESUMABLE_VERIFIED == option) && isRegularFile(source)) {
+        if (move)
+          ResumableCopy.move(source, target, options);
+        else
+          ResumableCopy.copy(source, target, options);
+        return target;
+      }
+      if (ExtendedCopyOption.DELTA == option && !move && isRegularFile(source) && isRegularFile(target)) {
+        DeltaCopy.copy(source, target, options);
+        return target;
+      }
+      if (ExtendedCopyOption.PARALLEL == option && !move && isRegularFile(source)) {
+        ParallelCopy.copy(source, target, options);
+        return target;
+      }
+    }
     final FileSystemProvider provider = provider(source);
     if (provider == provider(target)) {
       if (move)
@@ -278,12 +429,17 @@ public final class Files {
     else {
       final InputStream in = newInputStream(source);
       try {
-        final OutputStream out = newOutputStream(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        final long size = size(source);
+        final OutputStream out = newOutputStream(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW, PreallocateOpenOption.of(size));
+        boolean success = false;
         try {
-          Utils.transfer(in, out);
+          PipelinedTransfer.transfer(in, out, size, Utils.findOption(Arrays.asList(options), CopyProgress.class));
+          success = true;
         }
         finally {
           out.close();
+          if (!success)
+            deleteIfExists(target);
         }
       }
       finally {
@@ -323,8 +479,16 @@ public final class Files {
     return provider(path).newByteChannel(path, options, attrs);
   }
 
+  /**
+   * Non-standard, follow a growing file from position, like {@code tail -F}.
+   * @see FollowingByteChannel
+   */
+  public static FollowingByteChannel follow (Path path, long position) {
+    return new FollowingByteChannel(path, position, 100, 5000, TimeUnit.MILLISECONDS);
+  }
+
   public static InputStream newInputStream (Path path, OpenOption...options) throws IOException {
-    return provider(path).newInputStream(path);
+    return provider(path).newInputStream(path, options);
   }
 
   public static OutputStream newOutputStream (Path path, OpenOption...options) throws IOException {
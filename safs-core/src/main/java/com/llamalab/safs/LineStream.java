@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Non-standard stream of text lines, without line terminators.
+ * The iterator may only be obtained once, and throws {@link UncheckedIOException}.
+ *
+ * @see Files#lines(Path, java.nio.charset.Charset)
+ */
+public interface LineStream extends Iterable<String>, Closeable {
+
+  /**
+   * @return next line, or null at end-of-file.
+   */
+  public String readLine () throws IOException;
+
+}
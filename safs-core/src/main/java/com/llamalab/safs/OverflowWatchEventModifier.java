@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+/**
+ * Non-standard {@link WatchEvent.Modifier}.
+ */
+public enum OverflowWatchEventModifier implements WatchEvent.Modifier {
+  /**
+   * Keep a snapshot of the watched directory, and on {@link StandardWatchEventKinds#OVERFLOW}
+   * rescan it and deliver synthesized {@link StandardWatchEventKinds#ENTRY_CREATE},
+   * {@link StandardWatchEventKinds#ENTRY_DELETE} and {@link StandardWatchEventKinds#ENTRY_MODIFY}
+   * events instead, limited to the registered kinds.
+   * An entry replaced under the same name is reported as deleted and created, if the provider has file keys.
+   * The {@code OVERFLOW} event is kept if the rescan fails.
+   */
+  RESCAN,
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+/**
+ * Non-standard {@link OpenOption} allocating space for a file of known size when opened for write,
+ * to reduce fragmentation and fail early when out of space. Unless explicitly truncated, the file
+ * is truncated to the end of the last write, or its original size, when closed.
+ * Ignored with {@link StandardOpenOption#APPEND}, and by providers not supporting it.
+ */
+public final class PreallocateOpenOption implements OpenOption, Comparable<PreallocateOpenOption> {
+
+  private final long size;
+
+  private PreallocateOpenOption (long size) {
+    this.size = size;
+  }
+
+  public static PreallocateOpenOption of (long size) {
+    if (size < 0)
+      throw new IllegalArgumentException("size");
+    return new PreallocateOpenOption(size);
+  }
+
+  public long size () {
+    return size;
+  }
+
+  @Override
+  public int compareTo (PreallocateOpenOption other) {
+    return (size < other.size) ? -1 : ((size == other.size) ? 0 : 1);
+  }
+
+  @Override
+  public boolean equals (Object other) {
+    return other instanceof PreallocateOpenOption && size == ((PreallocateOpenOption)other).size;
+  }
+
+  @Override
+  public int hashCode () {
+    return (int)(size ^ (size >>> 32));
+  }
+
+  @Override
+  public String toString () {
+    return "PREALLOCATE["+size+"]";
+  }
+
+}
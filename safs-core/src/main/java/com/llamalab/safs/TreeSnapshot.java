@@ -0,0 +1,527 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+import com.llamalab.safs.attributes.BasicFileAttributes;
+import com.llamalab.safs.internal.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact record of the type, size, last modified time and file key of every entry in a tree,
+ * without holding {@link Path} objects. Entries are kept in primitive arrays with interned names,
+ * children of a directory contiguous and sorted by name.
+ * <p>
+ * When taken with a previous snapshot, the listing of a directory whose last modified time is
+ * unchanged is reused, so only the attributes of its entries are read. File-systems that don't
+ * maintain directory times report zero, and are always listed.
+ */
+public final class TreeSnapshot {
+
+  /**
+   * Directories modified this close to when the previous snapshot was taken are always listed.
+   */
+  private static final long TIME_GRANULARITY_MILLIS = 2000;
+  private static final int MAGIC = 0x54534e31; // TSN1
+
+  private static final byte DIRECTORY = 0;
+  private static final byte REGULAR_FILE = 1;
+  private static final byte SYMBOLIC_LINK = 2;
+  private static final byte OTHER = 3;
+
+  public enum ChangeKind {
+    CREATED,
+    DELETED,
+    MODIFIED,
+    MOVED,
+  }
+
+  public static final class Change {
+
+    private final ChangeKind kind;
+    private final Path path;
+    private final Path source;
+
+    Change (ChangeKind kind, Path path, Path source) {
+      this.kind = kind;
+      this.path = path;
+      this.source = source;
+    }
+
+    public ChangeKind kind () {
+      return kind;
+    }
+
+    public Path path () {
+      return path;
+    }
+
+    /**
+     * @return previous path of {@link ChangeKind#MOVED}, otherwise null.
+     */
+    public Path source () {
+      return source;
+    }
+
+    @Override
+    public String toString () {
+      return (source != null) ? kind + " " + source + " -> " + path : kind + " " + path;
+    }
+
+  } // class Change
+
+  private final Path root;
+  private final long taken;
+  private final String[] names;
+  private final int count;
+  private final int[] parents;
+  private final int[] nameIndexes;
+  private final byte[] types;
+  private final long[] sizes;
+  private final long[] times;
+  private final long[] keys;
+  private final int[] firstChildren;
+  private final int[] childCounts;
+
+  private TreeSnapshot (Path root, long taken, String[] names, int count, int[] parents, int[] nameIndexes, byte[] types,
+      long[] sizes, long[] times, long[] keys, int[] firstChildren, int[] childCounts) {
+    this.root = root;
+    this.taken = taken;
+    this.names = names;
+    this.count = count;
+    this.parents = parents;
+    this.nameIndexes = nameIndexes;
+    this.types = types;
+    this.sizes = sizes;
+    this.times = times;
+    this.keys = keys;
+    this.firstChildren = firstChildren;
+    this.childCounts = childCounts;
+  }
+
+  public static TreeSnapshot take (Path root) throws IOException {
+    return take(root, null);
+  }
+
+  /**
+   * @param previous snapshot of the same root, or null.
+   */
+  public static TreeSnapshot take (Path root, TreeSnapshot previous) throws IOException {
+    final Builder builder = new Builder(root);
+    final BasicFileAttributes rootAttrs = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    builder.add(-1, "", rootAttrs, (previous != null && previous.count != 0) ? 0 : -1);
+    for (int i = 0; i < builder.count; ++i) {
+      if (builder.types[i] != DIRECTORY)
+        continue;
+      final Path dir = builder.pathOf(i);
+      final int p = builder.previousIndexes[i];
+      List<String> children = null;
+      if (p >= 0
+          && previous.types[p] == DIRECTORY
+          && builder.times[i] != 0
+          && builder.times[i] == previous.times[p]
+          && builder.keys[i] == previous.keys[p]
+          && builder.times[i] < previous.taken - TIME_GRANULARITY_MILLIS) {
+        children = new ArrayList<String>(previous.childCounts[p]);
+        for (int c = previous.firstChildren[p], e = c + previous.childCounts[p]; c < e; ++c)
+          children.add(previous.names[previous.nameIndexes[c]]);
+      }
+      builder.firstChildren[i] = builder.count;
+      if (!builder.addChildren(i, dir, children, previous, p) && children != null) {
+        // changed after all
+        builder.count = builder.firstChildren[i];
+        builder.addChildren(i, dir, null, previous, p);
+      }
+      builder.childCounts[i] = builder.count - builder.firstChildren[i];
+    }
+    return builder.build();
+  }
+
+  public Path root () {
+    return root;
+  }
+
+  /**
+   * Number of entries, including the root.
+   */
+  public int size () {
+    return count;
+  }
+
+  /**
+   * Changes from this snapshot to the live tree.
+   */
+  public List<Change> diff () throws IOException {
+    return diff(take(root, this));
+  }
+
+  /**
+   * Changes from this snapshot to a newer one of the same root. Entries of created and deleted
+   * directories are reported individually. A deleted and a created entry with the same file key
+   * are reported as moved, a directory as one change, with only differences within reported. A
+   * directory replaced by another, with a different file key, is reported as deleted and created.
+   */
+  public List<Change> diff (TreeSnapshot newer) {
+    final List<Change> changes = new ArrayList<Change>();
+    final List<Integer> deleted = new ArrayList<Integer>();
+    final List<Integer> created = new ArrayList<Integer>();
+    if (count == 0 || newer.count == 0)
+      return changes;
+    compare(0, newer, 0, changes, deleted, created);
+    // moves
+    final Map<Long, List<Integer>> deletedByKey = new HashMap<Long, List<Integer>>();
+    for (final int d : deleted) {
+      if (keys[d] != 0) {
+        List<Integer> list = deletedByKey.get(keys[d]);
+        if (list == null)
+          deletedByKey.put(keys[d], list = new ArrayList<Integer>(1));
+        list.add(d);
+      }
+    }
+    final boolean[] moved = new boolean[count];
+    final boolean[] arrived = new boolean[newer.count];
+    for (final int c : created) {
+      if (arrived[c])
+        continue;
+      final int d = movedFrom(deletedByKey, newer.keys[c], newer.types[c], moved);
+      if (d < 0)
+        changes.add(new Change(ChangeKind.CREATED, newer.pathOf(c), null));
+      else {
+        changes.add(new Change(ChangeKind.MOVED, newer.pathOf(c), pathOf(d)));
+        if (types[d] == DIRECTORY) {
+          final List<Integer> deletedWithin = new ArrayList<Integer>();
+          final List<Integer> createdWithin = new ArrayList<Integer>();
+          compare(d, newer, c, changes, deletedWithin, createdWithin);
+          for (final int dw : deletedWithin) {
+            // unless moved out already
+            if (!moved[dw])
+              changes.add(new Change(ChangeKind.DELETED, pathOf(dw), null));
+          }
+          for (final int cw : createdWithin)
+            changes.add(new Change(ChangeKind.CREATED, newer.pathOf(cw), null));
+        }
+        mark(d, moved);
+        newer.mark(c, arrived);
+      }
+    }
+    for (final int d : deleted) {
+      if (!moved[d])
+        changes.add(new Change(ChangeKind.DELETED, pathOf(d), null));
+    }
+    return changes;
+  }
+
+  /**
+   * Compares the entries below directory {@code o} with those below {@code n} of {@code newer},
+   * reporting modified ones, and collecting deleted and created ones.
+   */
+  private void compare (int o, TreeSnapshot newer, int n, List<Change> changes, List<Integer> deleted, List<Integer> created) {
+    final ArrayDeque<int[]> stack = new ArrayDeque<int[]>();
+    stack.push(new int[] { o, n });
+    while (!stack.isEmpty()) {
+      final int[] pair = stack.pop();
+      int oc = firstChildren[pair[0]];
+      final int oe = oc + childCounts[pair[0]];
+      int nc = newer.firstChildren[pair[1]];
+      final int ne = nc + newer.childCounts[pair[1]];
+      while (oc < oe || nc < ne) {
+        final int cmp = (oc == oe) ? 1 : (nc == ne) ? -1 : nameOf(oc).compareTo(newer.nameOf(nc));
+        if (cmp < 0)
+          subtree(oc++, deleted);
+        else if (cmp > 0)
+          newer.subtree(nc++, created);
+        else {
+          if (types[oc] != newer.types[nc]
+              || (types[oc] == DIRECTORY && keys[oc] != 0 && newer.keys[nc] != 0 && keys[oc] != newer.keys[nc])) {
+            subtree(oc, deleted);
+            newer.subtree(nc, created);
+          }
+          else if (types[oc] == DIRECTORY)
+            stack.push(new int[] { oc, nc });
+          else if (sizes[oc] != newer.sizes[nc] || times[oc] != newer.times[nc] || keys[oc] != newer.keys[nc])
+            changes.add(new Change(ChangeKind.MODIFIED, newer.pathOf(nc), null));
+          ++oc;
+          ++nc;
+        }
+      }
+    }
+  }
+
+  private void subtree (int index, List<Integer> result) {
+    result.add(index);
+    if (types[index] == DIRECTORY) {
+      for (int c = firstChildren[index], e = c + childCounts[index]; c < e; ++c)
+        subtree(c, result);
+    }
+  }
+
+  private void mark (int index, boolean[] marks) {
+    marks[index] = true;
+    if (types[index] == DIRECTORY) {
+      for (int c = firstChildren[index], e = c + childCounts[index]; c < e; ++c)
+        mark(c, marks);
+    }
+  }
+
+  /**
+   * @return deleted entry not yet moved with the same key and type, or -1.
+   */
+  private int movedFrom (Map<Long, List<Integer>> deletedByKey, long key, byte type, boolean[] moved) {
+    final List<Integer> list = (key != 0) ? deletedByKey.get(key) : null;
+    if (list != null) {
+      for (final int d : list) {
+        if (!moved[d] && types[d] == type)
+          return d;
+      }
+    }
+    return -1;
+  }
+
+  private String nameOf (int index) {
+    return names[nameIndexes[index]];
+  }
+
+  private Path pathOf (int index) {
+    return (index == 0) ? root : pathOf(parents[index]).resolve(nameOf(index));
+  }
+
+  public static TreeSnapshot read (Path file) throws IOException {
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+    try {
+      if (MAGIC != in.readInt())
+        throw new IOException("Not a snapshot: " + file);
+      final Path root = Paths.get(URI.create(in.readUTF()));
+      final long taken = in.readLong();
+      final String[] names = new String[in.readInt()];
+      for (int i = 0; i < names.length; ++i)
+        names[i] = in.readUTF();
+      final int count = in.readInt();
+      final int[] parents = new int[count];
+      final int[] nameIndexes = new int[count];
+      final byte[] types = new byte[count];
+      final long[] sizes = new long[count];
+      final long[] times = new long[count];
+      final long[] keys = new long[count];
+      final int[] firstChildren = new int[count];
+      final int[] childCounts = new int[count];
+      for (int i = 0; i < count; ++i) {
+        parents[i] = in.readInt();
+        nameIndexes[i] = in.readInt();
+        types[i] = in.readByte();
+        sizes[i] = in.readLong();
+        times[i] = in.readLong();
+        keys[i] = in.readLong();
+        firstChildren[i] = in.readInt();
+        childCounts[i] = in.readInt();
+      }
+      return new TreeSnapshot(root, taken, names, count, parents, nameIndexes, types, sizes, times, keys, firstChildren, childCounts);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  public void write (Path file) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(MAGIC);
+      out.writeUTF(root.toUri().toString());
+      out.writeLong(taken);
+      out.writeInt(names.length);
+      for (final String name : names)
+        out.writeUTF(name);
+      out.writeInt(count);
+      for (int i = 0; i < count; ++i) {
+        out.writeInt(parents[i]);
+        out.writeInt(nameIndexes[i]);
+        out.writeByte(types[i]);
+        out.writeLong(sizes[i]);
+        out.writeLong(times[i]);
+        out.writeLong(keys[i]);
+        out.writeInt(firstChildren[i]);
+        out.writeInt(childCounts[i]);
+      }
+    }
+    finally {
+      out.close();
+    }
+    Utils.writeDurably(file, bytes.toByteArray());
+  }
+
+  private static byte typeOf (BasicFileAttributes attrs) {
+    if (attrs.isDirectory())
+      return DIRECTORY;
+    if (attrs.isRegularFile())
+      return REGULAR_FILE;
+    if (attrs.isSymbolicLink())
+      return SYMBOLIC_LINK;
+    return OTHER;
+  }
+
+  /**
+   * 64-bit FNV-1a of the file key string, zero if none.
+   */
+  private static long keyOf (BasicFileAttributes attrs) {
+    final Object fileKey = attrs.fileKey();
+    if (fileKey == null)
+      return 0;
+    final String s = fileKey.toString();
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); ++i) {
+      h ^= s.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return (h != 0) ? h : 1;
+  }
+
+  private static final class Builder {
+
+    final Path root;
+    final long taken = System.currentTimeMillis();
+    final Map<String, Integer> nameTable = new HashMap<String, Integer>();
+    final List<String> names = new ArrayList<String>();
+    int count;
+    int[] parents = new int[64];
+    int[] nameIndexes = new int[64];
+    byte[] types = new byte[64];
+    long[] sizes = new long[64];
+    long[] times = new long[64];
+    long[] keys = new long[64];
+    int[] firstChildren = new int[64];
+    int[] childCounts = new int[64];
+    int[] previousIndexes = new int[64];
+
+    Builder (Path root) {
+      this.root = root;
+    }
+
+    void add (int parent, String name, BasicFileAttributes attrs, int previousIndex) {
+      if (count == parents.length) {
+        final int length = 2 * count;
+        parents = Arrays.copyOf(parents, length);
+        nameIndexes = Arrays.copyOf(nameIndexes, length);
+        types = Arrays.copyOf(types, length);
+        sizes = Arrays.copyOf(sizes, length);
+        times = Arrays.copyOf(times, length);
+        keys = Arrays.copyOf(keys, length);
+        firstChildren = Arrays.copyOf(firstChildren, length);
+        childCounts = Arrays.copyOf(childCounts, length);
+        previousIndexes = Arrays.copyOf(previousIndexes, length);
+      }
+      Integer nameIndex = nameTable.get(name);
+      if (nameIndex == null) {
+        nameTable.put(name, nameIndex = names.size());
+        names.add(name);
+      }
+      parents[count] = parent;
+      nameIndexes[count] = nameIndex;
+      types[count] = typeOf(attrs);
+      sizes[count] = attrs.size();
+      times[count] = attrs.lastModifiedTime().toMillis();
+      keys[count] = keyOf(attrs);
+      firstChildren[count] = 0;
+      childCounts[count] = 0;
+      previousIndexes[count] = previousIndex;
+      ++count;
+    }
+
+    /**
+     * @param children names from a previous listing, or null to list.
+     * @return false if a child from a previous listing is gone.
+     */
+    boolean addChildren (int parent, Path dir, List<String> children, TreeSnapshot previous, int previousParent) throws IOException {
+      final boolean listed = (children == null);
+      if (listed) {
+        children = new ArrayList<String>();
+        try {
+          final DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+          try {
+            for (final Path child : stream)
+              children.add(child.getFileName().toString());
+          }
+          finally {
+            stream.close();
+          }
+        }
+        catch (DirectoryIteratorException e) {
+          throw e.getCause();
+        }
+        Collections.sort(children);
+      }
+      for (final String name : children) {
+        final BasicFileAttributes attrs;
+        try {
+          attrs = Files.readAttributes(dir.resolve(name), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        catch (NoSuchFileException e) {
+          if (!listed)
+            return false;
+          continue;
+        }
+        add(parent, name, attrs, (previousParent >= 0) ? previous.childIndexOf(previousParent, name) : -1);
+      }
+      return true;
+    }
+
+    Path pathOf (int index) {
+      return (index == 0) ? root : pathOf(parents[index]).resolve(names.get(nameIndexes[index]));
+    }
+
+    TreeSnapshot build () {
+      return new TreeSnapshot(root, taken, names.toArray(new String[names.size()]), count,
+          Arrays.copyOf(parents, count), Arrays.copyOf(nameIndexes, count), Arrays.copyOf(types, count),
+          Arrays.copyOf(sizes, count), Arrays.copyOf(times, count), Arrays.copyOf(keys, count),
+          Arrays.copyOf(firstChildren, count), Arrays.copyOf(childCounts, count));
+    }
+
+  } // class Builder
+
+  /**
+   * @return index of the named child, or -1.
+   */
+  private int childIndexOf (int parent, String name) {
+    if (types[parent] != DIRECTORY)
+      return -1;
+    int low = firstChildren[parent];
+    int high = low + childCounts[parent] - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int cmp = nameOf(mid).compareTo(name);
+      if (cmp < 0)
+        low = mid + 1;
+      else if (cmp > 0)
+        high = mid - 1;
+      else
+        return mid;
+    }
+    return -1;
+  }
+
+}
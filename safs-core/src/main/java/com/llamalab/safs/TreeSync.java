@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+import com.llamalab.safs.attributes.BasicFileAttributes;
+import com.llamalab.safs.internal.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One-way synchronization of a target tree with a source tree, possibly on different providers.
+ * <p>
+ * Both trees are listed in sorted merge order. A file is copied when missing from the target,
+ * and updated when the size differs or the source is newer than the target, or, in content mode,
+ * when the content differs. Entries only in the target are deleted if enabled. Excluded entries,
+ * matched on the path relative to the root, are left alone on both sides, also inside a deleted or
+ * replaced directory, which is then kept. So are source entries that are neither regular files
+ * nor directories, e.g. symbolic links.
+ * <p>
+ * Deletes and copies are carried out by {@code parallelism} workers, with directories deleted
+ * after their entries, and created before theirs. Updates only write the differing blocks, see {@link ExtendedCopyOption#DELTA}.
+ * With dry-run, the actions are only returned.
+ */
+public final class TreeSync {
+
+  /**
+   * Tolerance of last modified times, for FAT and providers rounding them.
+   */
+  public static final long TIME_TOLERANCE_MILLIS = 2000;
+
+  public enum ActionKind {
+    CREATE_DIRECTORY,
+    COPY,
+    UPDATE,
+    DELETE,
+    DELETE_DIRECTORY,
+  }
+
+  public static final class Action {
+
+    private final ActionKind kind;
+    private final Path source;
+    private final Path target;
+
+    Action (ActionKind kind, Path source, Path target) {
+      this.kind = kind;
+      this.source = source;
+      this.target = target;
+    }
+
+    public ActionKind kind () {
+      return kind;
+    }
+
+    /**
+     * @return null for {@link ActionKind#DELETE} and {@link ActionKind#DELETE_DIRECTORY}.
+     */
+    public Path source () {
+      return source;
+    }
+
+    public Path target () {
+      return target;
+    }
+
+    @Override
+    public String toString () {
+      return (source != null) ? kind + " " + source + " -> " + target : kind + " " + target;
+    }
+
+  } // class Action
+
+  private final Path source;
+  private final Path target;
+  private final List<PathMatcher> excludes = new ArrayList<PathMatcher>();
+  private int parallelism = 4;
+  private boolean delete;
+  private boolean compareContent;
+  private boolean dryRun;
+
+  public TreeSync (Path source, Path target) {
+    this.source = source;
+    this.target = target;
+  }
+
+  public void addExclude (PathMatcher matcher) {
+    excludes.add(matcher);
+  }
+
+  public void setParallelism (int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism");
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Delete target entries missing from the source.
+   */
+  public void setDelete (boolean delete) {
+    this.delete = delete;
+  }
+
+  /**
+   * Compare the content of files of equal size, instead of last modified times.
+   */
+  public void setCompareContent (boolean compareContent) {
+    this.compareContent = compareContent;
+  }
+
+  public void setDryRun (boolean dryRun) {
+    this.dryRun = dryRun;
+  }
+
+  /**
+   * @return actions, carried out unless dry-run.
+   */
+  public List<Action> sync () throws IOException {
+    final BasicFileAttributes sourceAttrs = Files.readAttributes(source, BasicFileAttributes.class);
+    if (!sourceAttrs.isDirectory())
+      throw new NotDirectoryException(source.toString());
+    final List<Action> actions = new ArrayList<Action>();
+    final BasicFileAttributes targetAttrs = readAttributes(target);
+    if (targetAttrs == null)
+      actions.add(new Action(ActionKind.CREATE_DIRECTORY, source, target));
+    else if (!targetAttrs.isDirectory())
+      throw new NotDirectoryException(target.toString());
+    plan(source, target, targetAttrs != null, actions);
+    if (!dryRun)
+      execute(actions);
+    return actions;
+  }
+
+  private void plan (Path sourceDir, Path targetDir, boolean targetExists, List<Action> actions) throws IOException {
+    final List<String> sourceNames = list(sourceDir);
+    final List<String> targetNames = targetExists ? list(targetDir) : Collections.<String>emptyList();
+    int s = 0;
+    int t = 0;
+    while (s < sourceNames.size() || t < targetNames.size()) {
+      final int cmp = (s == sourceNames.size()) ? 1 : (t == targetNames.size()) ? -1 : sourceNames.get(s).compareTo(targetNames.get(t));
+      if (cmp < 0) {
+        final String name = sourceNames.get(s++);
+        final Path sourceFile = sourceDir.resolve(name);
+        if (isExcluded(source, sourceFile))
+          continue;
+        final BasicFileAttributes attrs = readAttributes(sourceFile);
+        if (attrs != null)
+          create(sourceFile, attrs, targetDir.resolve(name), actions);
+      }
+      else if (cmp > 0) {
+        final Path targetFile = targetDir.resolve(targetNames.get(t++));
+        if (delete && !isExcluded(target, targetFile)) {
+          final BasicFileAttributes attrs = readAttributes(targetFile);
+          if (attrs != null)
+            remove(targetFile, attrs, actions);
+        }
+      }
+      else {
+        final String name = sourceNames.get(s++);
+        ++t;
+        final Path sourceFile = sourceDir.resolve(name);
+        final Path targetFile = targetDir.resolve(name);
+        if (isExcluded(source, sourceFile))
+          continue;
+        final BasicFileAttributes sourceAttrs = readAttributes(sourceFile);
+        // gone, or neither a regular file nor a directory, never worth replacing the target for
+        if (sourceAttrs == null || !(sourceAttrs.isRegularFile() || sourceAttrs.isDirectory()))
+          continue;
+        final BasicFileAttributes targetAttrs = readAttributes(targetFile);
+        if (targetAttrs == null)
+          create(sourceFile, sourceAttrs, targetFile, actions);
+        else if (sourceAttrs.isDirectory() != targetAttrs.isDirectory()) {
+          if (remove(targetFile, targetAttrs, actions))
+            create(sourceFile, sourceAttrs, targetFile, actions);
+        }
+        else if (sourceAttrs.isDirectory())
+          plan(sourceFile, targetFile, true, actions);
+        else if (sourceAttrs.isRegularFile() && isModified(sourceFile, sourceAttrs, targetFile, targetAttrs))
+          actions.add(new Action(ActionKind.UPDATE, sourceFile, targetFile));
+      }
+    }
+  }
+
+  private void create (Path sourceFile, BasicFileAttributes attrs, Path targetFile, List<Action> actions) throws IOException {
+    if (attrs.isDirectory()) {
+      actions.add(new Action(ActionKind.CREATE_DIRECTORY, sourceFile, targetFile));
+      plan(sourceFile, targetFile, false, actions);
+    }
+    else if (attrs.isRegularFile())
+      actions.add(new Action(ActionKind.COPY, sourceFile, targetFile));
+  }
+
+  /**
+   * Plans deleting a target entry, a directory after its entries, unless any is excluded.
+   * @return false if kept.
+   */
+  private boolean remove (Path targetFile, BasicFileAttributes attrs, List<Action> actions) throws IOException {
+    if (!attrs.isDirectory()) {
+      actions.add(new Action(ActionKind.DELETE, null, targetFile));
+      return true;
+    }
+    boolean empty = true;
+    for (final String name : list(targetFile)) {
+      final Path child = targetFile.resolve(name);
+      if (isExcluded(target, child))
+        empty = false;
+      else {
+        final BasicFileAttributes childAttrs = readAttributes(child);
+        if (childAttrs != null && !remove(child, childAttrs, actions))
+          empty = false;
+      }
+    }
+    if (empty)
+      actions.add(new Action(ActionKind.DELETE_DIRECTORY, null, targetFile));
+    return empty;
+  }
+
+  private boolean isModified (Path sourceFile, BasicFileAttributes sourceAttrs, Path targetFile, BasicFileAttributes targetAttrs) throws IOException {
+    if (sourceAttrs.size() != targetAttrs.size())
+      return true;
+    if (compareContent)
+      return !Files.isSameContent(sourceFile, targetFile);
+    // copies may not keep the time, so only a newer source counts
+    return sourceAttrs.lastModifiedTime().toMillis() > targetAttrs.lastModifiedTime().toMillis() + TIME_TOLERANCE_MILLIS;
+  }
+
+  private boolean isExcluded (Path root, Path path) {
+    if (excludes.isEmpty())
+      return false;
+    final Path relative = root.relativize(path);
+    for (final PathMatcher matcher : excludes) {
+      if (matcher.matches(relative))
+        return true;
+    }
+    return false;
+  }
+
+  private static List<String> list (Path dir) throws IOException {
+    final List<String> names = new ArrayList<String>();
+    try {
+      final DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+      try {
+        for (final Path child : stream)
+          names.add(child.getFileName().toString());
+      }
+      finally {
+        stream.close();
+      }
+    }
+    catch (DirectoryIteratorException e) {
+      throw e.getCause();
+    }
+    Collections.sort(names);
+    return names;
+  }
+
+  /**
+   * @return null if gone.
+   */
+  private static BasicFileAttributes readAttributes (Path path) throws IOException {
+    try {
+      return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+    catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  private void execute (List<Action> actions) throws IOException {
+    final List<Action> deletes = new ArrayList<Action>();
+    final List<Action> copies = new ArrayList<Action>();
+    for (final Action action : actions) {
+      if (ActionKind.DELETE == action.kind)
+        deletes.add(action);
+      else if (ActionKind.COPY == action.kind || ActionKind.UPDATE == action.kind)
+        copies.add(action);
+    }
+    parallel(deletes);
+    // children before parents
+    for (final Action action : actions) {
+      if (ActionKind.DELETE_DIRECTORY == action.kind)
+        Files.deleteIfExists(action.target);
+    }
+    // parents before children
+    for (final Action action : actions) {
+      if (ActionKind.CREATE_DIRECTORY == action.kind)
+        Files.createDirectories(action.target);
+    }
+    parallel(copies);
+  }
+
+  private void parallel (final List<Action> actions) throws IOException {
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicBoolean aborted = new AtomicBoolean();
+    final List<Future<Void>> futures = new ArrayList<Future<Void>>(parallelism);
+    try {
+      for (int w = Math.min(parallelism, actions.size()); w > 0; --w) {
+        futures.add(Utils.executor().submit(new Callable<Void>() {
+          @Override
+          public Void call () throws Exception {
+            for (int i; !aborted.get() && (i = next.getAndIncrement()) < actions.size();)
+              perform(actions.get(i));
+            return null;
+          }
+        }));
+      }
+      Utils.awaitAll(futures, aborted);
+    }
+    finally {
+      aborted.set(true);
+      Utils.awaitQuietly(futures);
+    }
+  }
+
+  private static void perform (Action action) throws IOException {
+    switch (action.kind) {
+      case DELETE:
+        Files.deleteIfExists(action.target);
+        break;
+      case COPY:
+        Files.copy(action.source, action.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        break;
+      case UPDATE:
+        Files.copy(action.source, action.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES, ExtendedCopyOption.DELTA);
+        break;
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.channels;
+
+import com.llamalab.safs.internal.BufferPool;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+/**
+ * Buffers reads and writes with a single buffer, holding either read data or pending writes.
+ * Pending writes are flushed when reading, writing elsewhere, truncating or closing, and
+ * accounted for by {@link #size}. Transfers at least the buffer size bypass it.
+ * Not thread-safe.
+ */
+public final class BufferedSeekableByteChannel implements SeekableByteChannel, Flushable {
+
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  private final SeekableByteChannel channel;
+  private final boolean append;
+  private final ByteBuffer buffer;
+  private long bufferStart;
+  private boolean writing;
+  private long position;
+  private boolean closed;
+
+  public BufferedSeekableByteChannel (SeekableByteChannel channel) throws IOException {
+    this(channel, DEFAULT_BUFFER_SIZE, false);
+  }
+
+  /**
+   * @param append if the channel was opened with {@link com.llamalab.safs.StandardOpenOption#APPEND}.
+   */
+  public BufferedSeekableByteChannel (SeekableByteChannel channel, int bufferSize, boolean append) throws IOException {
+    if (channel == null)
+      throw new NullPointerException("channel");
+    if (bufferSize <= 0)
+      throw new IllegalArgumentException("bufferSize");
+    this.channel = channel;
+    this.append = append;
+    this.buffer = BufferPool.getInstance().acquire(bufferSize, false);
+    this.buffer.limit(0);
+    this.position = channel.position();
+  }
+
+  @Override
+  public boolean isOpen () {
+    return !closed;
+  }
+
+  @Override
+  public void close () throws IOException {
+    if (closed)
+      return;
+    closed = true;
+    try {
+      flushBuffer();
+    }
+    finally {
+      BufferPool.getInstance().release(buffer);
+      channel.close();
+    }
+  }
+
+  private void checkOpen () throws ClosedChannelException {
+    if (closed)
+      throw new ClosedChannelException();
+  }
+
+  /**
+   * Write pending data to the underlying channel.
+   */
+  @Override
+  public void flush () throws IOException {
+    checkOpen();
+    flushBuffer();
+  }
+
+  private void flushBuffer () throws IOException {
+    if (writing) {
+      buffer.flip();
+      try {
+        long p = bufferStart;
+        while (buffer.hasRemaining())
+          p += channel.write(buffer, p);
+      }
+      finally {
+        // on failure, the unwritten data is lost like with an unbuffered channel
+        writing = false;
+        buffer.clear().limit(0);
+      }
+    }
+  }
+
+  private void discardBuffer () throws IOException {
+    if (writing)
+      flushBuffer();
+    else
+      buffer.clear().limit(0);
+  }
+
+  @Override
+  public int read (ByteBuffer dst) throws IOException {
+    final int n = read(dst, position);
+    if (n > 0)
+      position += n;
+    return n;
+  }
+
+  @Override
+  public int read (ByteBuffer dst, long position) throws IOException {
+    if (position < 0)
+      throw new IllegalArgumentException();
+    checkOpen();
+    flushBuffer();
+    final int start = dst.position();
+    while (dst.hasRemaining()) {
+      final long offset = position - bufferStart;
+      if (offset >= 0 && offset < buffer.limit()) {
+        final int n = Math.min(buffer.limit() - (int)offset, dst.remaining());
+        final ByteBuffer src = buffer.duplicate();
+        src.limit((int)offset + n).position((int)offset);
+        dst.put(src);
+        position += n;
+        continue;
+      }
+      if (dst.position() != start)
+        break; // don't block for more
+      if (dst.remaining() >= buffer.capacity())
+        return channel.read(dst, position);
+      buffer.clear();
+      bufferStart = position;
+      final int n = channel.read(buffer, position);
+      buffer.flip();
+      if (n <= 0)
+        return n;
+    }
+    return dst.position() - start;
+  }
+
+  @Override
+  public long read (ByteBuffer[] dsts) throws IOException {
+    return read(dsts, 0, dsts.length);
+  }
+
+  @Override
+  public long read (ByteBuffer[] dsts, int offset, int length) throws IOException {
+    if ((offset | length) < 0 || offset > dsts.length - length)
+      throw new IndexOutOfBoundsException();
+    long total = 0;
+    for (int i = offset, e = offset + length; i < e; ++i) {
+      if (!dsts[i].hasRemaining())
+        continue;
+      final int n = read(dsts[i]);
+      if (n < 0)
+        return (total == 0) ? -1 : total;
+      total += n;
+      if (dsts[i].hasRemaining())
+        break;
+    }
+    return total;
+  }
+
+  @Override
+  public int write (ByteBuffer src) throws IOException {
+    checkOpen();
+    if (append)
+      position = writing ? bufferStart + buffer.position() : channel.size();
+    final int n = src.remaining();
+    if (writing && position == bufferStart + buffer.position() && n <= buffer.remaining()) {
+      buffer.put(src);
+      position += n;
+      return n;
+    }
+    discardBuffer();
+    if (n >= buffer.capacity()) {
+      final int w = channel.write(src, position);
+      position += w;
+      return w;
+    }
+    writing = true;
+    bufferStart = position;
+    buffer.clear();
+    buffer.put(src);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int write (ByteBuffer src, long position) throws IOException {
+    if (position < 0)
+      throw new IllegalArgumentException();
+    checkOpen();
+    discardBuffer();
+    return channel.write(src, position);
+  }
+
+  @Override
+  public long write (ByteBuffer[] srcs) throws IOException {
+    return write(srcs, 0, srcs.length);
+  }
+
+  @Override
+  public long write (ByteBuffer[] srcs, int offset, int length) throws IOException {
+    if ((offset | length) < 0 || offset > srcs.length - length)
+      throw new IndexOutOfBoundsException();
+    long total = 0;
+    for (int i = offset, e = offset + length; i < e; ++i)
+      total += write(srcs[i]);
+    return total;
+  }
+
+  @Override
+  public long position () throws IOException {
+    checkOpen();
+    return position;
+  }
+
+  @Override
+  public SeekableByteChannel position (long newPosition) throws IOException {
+    if (newPosition < 0)
+      throw new IllegalArgumentException();
+    checkOpen();
+    position = newPosition;
+    return this;
+  }
+
+  @Override
+  public void force (boolean metaData) throws IOException {
+    checkOpen();
+    flushBuffer();
+    channel.force(metaData);
+  }
+
+  @Override
+  public long size () throws IOException {
+    checkOpen();
+    final long size = channel.size();
+    return writing ? Math.max(size, bufferStart + buffer.position()) : size;
+  }
+
+  @Override
+  public SeekableByteChannel truncate (long size) throws IOException {
+    if (size < 0)
+      throw new IllegalArgumentException();
+    checkOpen();
+    discardBuffer();
+    channel.truncate(size);
+    if (position > size)
+      position = size;
+    return this;
+  }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.channels;
+
+/**
+ * Non-standard, a range of bytes in a file.
+ * @see SeekableByteChannels#readRanges
+ */
+public final class ByteRange implements Comparable<ByteRange> {
+
+  private final long offset;
+  private final int length;
+
+  public ByteRange (long offset, int length) {
+    if (offset < 0)
+      throw new IllegalArgumentException("offset");
+    if (length < 0)
+      throw new IllegalArgumentException("length");
+    this.offset = offset;
+    this.length = length;
+  }
+
+  public long offset () {
+    return offset;
+  }
+
+  public int length () {
+    return length;
+  }
+
+  public long end () {
+    return offset + length;
+  }
+
+  @Override
+  public int compareTo (ByteRange other) {
+    //noinspection UseCompareMethod
+    return (offset < other.offset) ? -1 : (offset > other.offset) ? 1 : (length < other.length) ? -1 : (length == other.length) ? 0 : 1;
+  }
+
+  @Override
+  public int hashCode () {
+    return (int)(offset ^ (offset >>> 32)) * 31 + length;
+  }
+
+  @Override
+  public boolean equals (Object obj) {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof ByteRange))
+      return false;
+    final ByteRange other = (ByteRange)obj;
+    return offset == other.offset && length == other.length;
+  }
+
+  @Override
+  public String toString () {
+    return "["+offset+", "+end()+")";
+  }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.channels;
+
+import com.llamalab.safs.Files;
+import com.llamalab.safs.Path;
+import com.llamalab.safs.StandardOpenOption;
+import com.llamalab.safs.internal.BufferPool;
+import com.llamalab.safs.internal.Mappable;
+import com.llamalab.safs.internal.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes a file as chunks split at record boundaries, concurrently, and reduces the results
+ * in file order.
+ * <p>
+ * Each chunk ends just after a delimiter, or at the end of the file, so records never span chunks.
+ * Chunks are passed to the {@link Mapper} as a read-only memory-mapping when the channel is
+ * {@link Mappable}, otherwise read into a buffer of at most about {@link #MAX_READ_CHUNK_SIZE}.
+ */
+public final class ChunkProcessor {
+
+  public static final long MAX_MAPPED_CHUNK_SIZE = 1024 * 1024 * 1024;
+  public static final long MAX_READ_CHUNK_SIZE = 8 * 1024 * 1024;
+  private static final long MIN_CHUNK_SIZE = 64 * 1024;
+  private static final int SCAN_BUFFER_SIZE = 4096;
+
+  public interface Mapper<R> {
+    /**
+     * @param chunk content from its position to its limit, only valid during the call.
+     * @param offset file offset of the chunk.
+     */
+    public R map (ByteBuffer chunk, long offset) throws IOException;
+  }
+
+  public interface Reducer<R> {
+    public R reduce (R a, R b);
+  }
+
+  private ChunkProcessor () {}
+
+  /**
+   * Newline delimited, on all processors.
+   */
+  public static <R> R process (Path file, Mapper<R> mapper, Reducer<R> reducer, R identity) throws IOException {
+    return process(file, new byte[] { '\n' }, Runtime.getRuntime().availableProcessors(), Utils.executor(), mapper, reducer, identity);
+  }
+
+  /**
+   * @param parallelism max number of chunks processed concurrently.
+   * @param identity result of an empty file, and the initial value of the reduction.
+   */
+  public static <R> R process (Path file, byte[] delimiter, int parallelism, ExecutorService executor,
+      final Mapper<R> mapper, Reducer<R> reducer, R identity) throws IOException {
+    if (delimiter.length == 0)
+      throw new IllegalArgumentException("delimiter");
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism");
+    final SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ);
+    try {
+      final long[] bounds = split(channel, delimiter, parallelism);
+      final int chunks = bounds.length - 1;
+      final List<R> results = new ArrayList<R>(chunks);
+      for (int i = 0; i < chunks; ++i)
+        results.add(null);
+      final AtomicInteger next = new AtomicInteger();
+      final AtomicBoolean aborted = new AtomicBoolean();
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>(parallelism);
+      try {
+        for (int w = Math.min(parallelism, chunks); w > 0; --w) {
+          futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call () throws Exception {
+              for (int i; !aborted.get() && (i = next.getAndIncrement()) < chunks;) {
+                final R result = processChunk(channel, bounds[i], bounds[i + 1], mapper);
+                synchronized (results) {
+                  results.set(i, result);
+                }
+              }
+              return null;
+            }
+          }));
+        }
+        Utils.awaitAll(futures, aborted);
+      }
+      finally {
+        aborted.set(true);
+        Utils.awaitQuietly(futures);
+      }
+      R result = identity;
+      synchronized (results) {
+        for (final R r : results)
+          result = reducer.reduce(result, r);
+      }
+      return result;
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * @return chunk boundaries, from zero to the size.
+   */
+  private static long[] split (SeekableByteChannel channel, byte[] delimiter, int parallelism) throws IOException {
+    final long size = channel.size();
+    final long maxChunkSize = (channel instanceof Mappable) ? MAX_MAPPED_CHUNK_SIZE : MAX_READ_CHUNK_SIZE;
+    final long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(maxChunkSize, (size + parallelism - 1) / parallelism));
+    final List<Long> bounds = new ArrayList<Long>();
+    bounds.add(0L);
+    for (long start = 0; start < size;) {
+      final long end = (size - start <= chunkSize) ? size : boundary(channel, Math.max(start, start + chunkSize - delimiter.length + 1), size, delimiter);
+      if (end - start > Integer.MAX_VALUE)
+        throw new IOException("Record too long");
+      bounds.add(end);
+      start = end;
+    }
+    final long[] result = new long[bounds.size()];
+    for (int i = 0; i < result.length; ++i)
+      result[i] = bounds.get(i);
+    return result;
+  }
+
+  /**
+   * @return position after the first delimiter at or after {@code position}, or {@code size}.
+   */
+  private static long boundary (SeekableByteChannel channel, long position, long size, byte[] delimiter) throws IOException {
+    final BufferPool pool = BufferPool.getInstance();
+    final ByteBuffer buf = pool.acquire(Math.max(SCAN_BUFFER_SIZE, 2 * delimiter.length), false);
+    try {
+      while (position < size) {
+        buf.clear();
+        final int n = SeekableByteChannels.readUpTo(channel, buf, position);
+        if (n < delimiter.length)
+          return size;
+        search:
+        for (int i = 0, e = n - delimiter.length; i <= e; ++i) {
+          for (int j = 0; j < delimiter.length; ++j) {
+            if (buf.get(i + j) != delimiter[j])
+              continue search;
+          }
+          return position + i + delimiter.length;
+        }
+        // overlap a partial delimiter
+        position += n - delimiter.length + 1;
+      }
+      return size;
+    }
+    finally {
+      pool.release(buf);
+    }
+  }
+
+  private static <R> R processChunk (SeekableByteChannel channel, long start, long end, Mapper<R> mapper) throws IOException {
+    final int length = (int)(end - start);
+    if (channel instanceof Mappable)
+      return mapper.map(((Mappable)channel).map(start, length), start);
+    final BufferPool pool = BufferPool.getInstance();
+    final ByteBuffer buf = pool.acquire(length, false);
+    try {
+      SeekableByteChannels.readFully(channel, buf, start);
+      buf.flip();
+      return mapper.map(buf.asReadOnlyBuffer(), start);
+    }
+    finally {
+      pool.release(buf);
+    }
+  }
+
+}
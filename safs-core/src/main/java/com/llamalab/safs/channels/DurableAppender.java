@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.channels;
+
+import com.llamalab.safs.Files;
+import com.llamalab.safs.Path;
+import com.llamalab.safs.StandardOpenOption;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Appends records durably with group commit.
+ * <p>
+ * Records from any number of threads are queued, and a single writer thread writes all queued
+ * records, up to {@code maxBatchSize} bytes, with one gathering write followed by one
+ * {@link SeekableByteChannel#force}. The {@link Future} returned by {@link #append} completes
+ * with the file offset of the record when it's durable. After a failed write, all pending
+ * and later appends fail, since the end of the file is unknown.
+ * <p>
+ * The file must not be written by others while open.
+ */
+public final class DurableAppender implements Closeable {
+
+  public static final int DEFAULT_MAX_BATCH_SIZE = 1024 * 1024;
+
+  /**
+   * Stay below IOV_MAX.
+   */
+  private static final int MAX_BATCH_RECORDS = 1024;
+
+  private static final Record CLOSE = new Record(null);
+
+  private final SeekableByteChannel channel;
+  private final int maxBatchSize;
+  private final boolean metaData;
+  private final BlockingQueue<Record> queue = new LinkedBlockingQueue<Record>();
+  private final Thread writer;
+  private final Object lock = new Object();
+  private boolean closed;
+  private IOException failure;
+  private long position;
+
+  public DurableAppender (Path path) throws IOException {
+    this(path, DEFAULT_MAX_BATCH_SIZE, false);
+  }
+
+  /**
+   * @param metaData also force file metadata, like {@link StandardOpenOption#SYNC} instead of {@link StandardOpenOption#DSYNC}.
+   */
+  public DurableAppender (Path path, int maxBatchSize, boolean metaData) throws IOException {
+    if (maxBatchSize <= 0)
+      throw new IllegalArgumentException("maxBatchSize");
+    this.maxBatchSize = maxBatchSize;
+    this.metaData = metaData;
+    this.channel = Files.newByteChannel(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    try {
+      this.position = channel.size();
+    }
+    catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run () {
+        DurableAppender.this.run();
+      }
+    }, "DurableAppender");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * The record must not be modified until the returned future is done.
+   * @return future completed with the file offset of the record.
+   */
+  public Future<Long> append (ByteBuffer record) throws IOException {
+    final Record r = new Record(record.duplicate());
+    synchronized (lock) {
+      if (closed)
+        throw new ClosedChannelException();
+      if (failure != null)
+        throw (IOException)new IOException(failure.getMessage()).initCause(failure);
+      queue.add(r);
+    }
+    return r;
+  }
+
+  /**
+   * Waits for queued records to be written.
+   */
+  @Override
+  public void close () throws IOException {
+    synchronized (lock) {
+      if (closed)
+        return;
+      closed = true;
+      queue.add(CLOSE);
+    }
+    boolean interrupted = false;
+    try {
+      for (;;) {
+        try {
+          writer.join();
+          break;
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    finally {
+      channel.close();
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run () {
+    final List<Record> batch = new ArrayList<Record>();
+    for (;;) {
+      Record r;
+      try {
+        r = queue.take();
+      }
+      catch (InterruptedException e) {
+        continue;
+      }
+      boolean stop = false;
+      long size = 0;
+      do {
+        if (CLOSE == r) {
+          stop = true;
+          break;
+        }
+        batch.add(r);
+        size += r.buffer.remaining();
+      } while (size < maxBatchSize && batch.size() < MAX_BATCH_RECORDS && (r = queue.poll()) != null);
+      if (!batch.isEmpty()) {
+        commit(batch);
+        batch.clear();
+      }
+      if (stop)
+        return;
+    }
+  }
+
+  private void commit (List<Record> batch) {
+    IOException failure;
+    synchronized (lock) {
+      failure = this.failure;
+    }
+    if (failure == null) {
+      try {
+        final int count = batch.size();
+        final ByteBuffer[] srcs = new ByteBuffer[count];
+        long end = position;
+        for (int i = 0; i < count; ++i) {
+          final Record r = batch.get(i);
+          r.offset = end;
+          end += r.buffer.remaining();
+          srcs[i] = r.buffer;
+        }
+        channel.position(position);
+        for (long remaining = end - position; remaining > 0;)
+          remaining -= channel.write(srcs);
+        channel.force(metaData);
+        position = end;
+      }
+      catch (IOException e) {
+        failure = e;
+      }
+      catch (RuntimeException e) {
+        //noinspection UnnecessaryInitCause
+        failure = (IOException)new IOException(e.getMessage()).initCause(e);
+      }
+      if (failure != null) {
+        synchronized (lock) {
+          this.failure = failure;
+        }
+      }
+    }
+    for (final Record r : batch)
+      r.complete(failure);
+  }
+
+  private static final class Record implements Future<Long> {
+
+    final ByteBuffer buffer;
+    final CountDownLatch done = new CountDownLatch(1);
+    long offset;
+    IOException failure;
+
+    Record (ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    void complete (IOException failure) {
+      this.failure = failure;
+      done.countDown();
+    }
+
+    @Override
+    public boolean cancel (boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled () {
+      return false;
+    }
+
+    @Override
+    public boolean isDone () {
+      return done.getCount() == 0;
+    }
+
+    @Override
+    public Long get () throws InterruptedException, ExecutionException {
+      done.await();
+      return result();
+    }
+
+    @Override
+    public Long get (long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      if (!done.await(timeout, unit))
+        throw new TimeoutException();
+      return result();
+    }
+
+    private Long result () throws ExecutionException {
+      if (failure != null)
+        throw new ExecutionException(failure);
+      return offset;
+    }
+
+  } // class Record
+
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.channels;
+
+import com.llamalab.safs.ClosedWatchServiceException;
+import com.llamalab.safs.Files;
+import com.llamalab.safs.NoSuchFileException;
+import com.llamalab.safs.Path;
+import com.llamalab.safs.StandardOpenOption;
+import com.llamalab.safs.StandardWatchEventKinds;
+import com.llamalab.safs.WatchKey;
+import com.llamalab.safs.WatchService;
+import com.llamalab.safs.attributes.BasicFileAttributes;
+import com.llamalab.safs.internal.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a growing file, like {@code tail -F}.
+ * <p>
+ * A {@link #read} blocks until data is appended. The file is kept open with a single
+ * {@link SeekableByteChannel} that is only reopened when the file is truncated, in which case
+ * reading restart at the beginning, or replaced, i.e. rotated, in which case reading continue
+ * from the beginning of the new file. Without a {@link BasicFileAttributes#fileKey}, rotation
+ * is only detected when the new file is smaller than the old.
+ * <p>
+ * A {@link WatchService} on the parent directory is used for wake up when supported by the
+ * file-system, otherwise polling backing off from {@code minPollInterval} to {@code maxPollInterval}.
+ * Not thread-safe, except for {@link #close}.
+ */
+public final class FollowingByteChannel implements ReadableByteChannel {
+
+  private final Path path;
+  private final long minPollInterval;
+  private final long maxPollInterval;
+  private final Object closeLock = new Object();
+  private volatile boolean closed;
+  private boolean reading;
+  private SeekableByteChannel channel;
+  private Object fileKey;
+  private long position;
+  private long pollInterval;
+  private volatile WatchService watchService;
+  private boolean watchUnsupported;
+
+  public FollowingByteChannel (Path path, long position, long minPollInterval, long maxPollInterval, TimeUnit unit) {
+    if (path == null)
+      throw new NullPointerException("path");
+    if (position < 0)
+      throw new IllegalArgumentException("position");
+    if (minPollInterval <= 0 || maxPollInterval < minPollInterval)
+      throw new IllegalArgumentException("pollInterval");
+    this.path = path;
+    this.position = position;
+    this.minPollInterval = unit.toMillis(minPollInterval);
+    this.maxPollInterval = unit.toMillis(maxPollInterval);
+    this.pollInterval = this.minPollInterval;
+  }
+
+  public Path path () {
+    return path;
+  }
+
+  /**
+   * Position in the currently followed file.
+   */
+  public long position () {
+    return position;
+  }
+
+  @Override
+  public boolean isOpen () {
+    return !closed;
+  }
+
+  /**
+   * May be called from another thread to abort a blocked {@link #read}.
+   * The reader is woken without being interrupted.
+   */
+  @Override
+  public void close () throws IOException {
+    synchronized (closeLock) {
+      if (closed)
+        return;
+      closed = true;
+      closeLock.notifyAll();
+      if (reading) {
+        // wake watch poll, released by reader
+        final WatchService ws = watchService;
+        if (ws != null)
+          Utils.closeQuietly(ws);
+        return;
+      }
+    }
+    release();
+  }
+
+  /**
+   * Blocks until at least one byte is read.
+   * @return number of bytes read, never -1.
+   */
+  @Override
+  public int read (ByteBuffer dst) throws IOException {
+    if (!dst.hasRemaining())
+      return 0;
+    synchronized (closeLock) {
+      if (closed)
+        throw new ClosedChannelException();
+      reading = true;
+    }
+    try {
+      for (;;) {
+        final int n = readAvailable(dst);
+        if (n > 0) {
+          pollInterval = minPollInterval;
+          return n;
+        }
+        await();
+        if (closed)
+          throw new AsynchronousCloseException();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      synchronized (closeLock) {
+        if (closed)
+          throw new AsynchronousCloseException();
+        closed = true;
+      }
+      throw new ClosedByInterruptException();
+    }
+    catch (ClosedByInterruptException e) {
+      // channel interrupted
+      synchronized (closeLock) {
+        closed = true;
+      }
+      throw e;
+    }
+    finally {
+      synchronized (closeLock) {
+        reading = false;
+      }
+      if (closed)
+        release();
+    }
+  }
+
+  private int readAvailable (ByteBuffer dst) throws IOException {
+    if (channel == null && !open())
+      return 0;
+    final long size = channel.size();
+    if (size < position) {
+      // truncated
+      position = 0;
+    }
+    if (size > position) {
+      channel.position(position);
+      final int n = channel.read(dst);
+      if (n > 0) {
+        position += n;
+        return n;
+      }
+    }
+    // drained, check for rotation, size before stat so an append in between isn't mistaken for it
+    final long current = channel.size();
+    try {
+      final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+      final Object key = attrs.fileKey();
+      if ((key != null && fileKey != null) ? !key.equals(fileKey) : attrs.size() < current) {
+        closeChannel();
+        position = 0;
+        if (open())
+          return readAvailable(dst);
+      }
+    }
+    catch (NoSuchFileException e) {
+      // rotated, but not yet replaced
+    }
+    return 0;
+  }
+
+  private boolean open () throws IOException {
+    try {
+      fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+      channel = Files.newByteChannel(path, StandardOpenOption.READ);
+      return true;
+    }
+    catch (NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  private void closeChannel () throws IOException {
+    final SeekableByteChannel c = channel;
+    channel = null;
+    if (c != null)
+      c.close();
+  }
+
+  private synchronized void release () throws IOException {
+    if (watchService != null) {
+      Utils.closeQuietly(watchService);
+      watchService = null;
+    }
+    closeChannel();
+  }
+
+  private void await () throws IOException, InterruptedException {
+    final WatchService ws = watchService();
+    if (ws != null) {
+      try {
+        final WatchKey key = ws.poll(pollInterval, TimeUnit.MILLISECONDS);
+        if (key != null) {
+          key.pollEvents();
+          key.reset();
+          return;
+        }
+      }
+      catch (ClosedWatchServiceException e) {
+        // woken by close
+        return;
+      }
+    }
+    else {
+      synchronized (closeLock) {
+        if (!closed)
+          closeLock.wait(pollInterval);
+      }
+    }
+    pollInterval = Math.min(pollInterval * 2, maxPollInterval);
+  }
+
+  private WatchService watchService () throws IOException {
+    if (watchService == null && !watchUnsupported) {
+      final Path parent = path.toAbsolutePath().getParent();
+      try {
+        final WatchService ws = path.getFileSystem().newWatchService();
+        try {
+          parent.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        catch (IOException e) {
+          Utils.closeQuietly(ws);
+          throw e;
+        }
+        catch (RuntimeException e) {
+          Utils.closeQuietly(ws);
+          throw e;
+        }
+        synchronized (closeLock) {
+          if (closed) {
+            Utils.closeQuietly(ws);
+            return null;
+          }
+          watchService = ws;
+        }
+      }
+      catch (UnsupportedOperationException e) {
+        watchUnsupported = true;
+      }
+    }
+    return watchService;
+  }
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.channels;
+
+import com.llamalab.safs.Files;
+import com.llamalab.safs.LineStream;
+import com.llamalab.safs.Path;
+import com.llamalab.safs.StandardOpenOption;
+import com.llamalab.safs.attributes.BasicFileAttributes;
+import com.llamalab.safs.internal.BufferPool;
+import com.llamalab.safs.internal.LineReader;
+import com.llamalab.safs.internal.Mappable;
+import com.llamalab.safs.internal.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Sparse index of line start offsets, recording every {@code interval}th line, for random access
+ * to lines of a large text file in an ASCII compatible charset. Line terminators are those of
+ * {@link LineStream}.
+ * <p>
+ * {@link #of(Path)} persists the index next to the file, and reuses it while the size and last
+ * modified time of the file are unchanged.
+ */
+public final class LineIndex {
+
+  public static final int DEFAULT_INTERVAL = 1024;
+
+  private static final int MAGIC = 0x4c494458; // LIDX
+  private static final String INDEX_SUFFIX = ".lineidx";
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long MAP_REGION_SIZE = 64 * 1024 * 1024;
+
+  private final long size;
+  private final long lastModified;
+  private final int interval;
+  private final long lineCount;
+  private final long[] offsets;
+
+  private LineIndex (long size, long lastModified, int interval, long lineCount, long[] offsets) {
+    this.size = size;
+    this.lastModified = lastModified;
+    this.interval = interval;
+    this.lineCount = lineCount;
+    this.offsets = offsets;
+  }
+
+  public static Path indexOf (Path file) {
+    return file.resolveSibling(file.getFileName().toString() + INDEX_SUFFIX);
+  }
+
+  public static LineIndex of (Path file) throws IOException {
+    return of(file, DEFAULT_INTERVAL);
+  }
+
+  /**
+   * Read the persisted index if still valid, otherwise build and try to persist it.
+   */
+  public static LineIndex of (Path file, int interval) throws IOException {
+    if (interval <= 0)
+      throw new IllegalArgumentException("interval");
+    final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+    final Path indexFile = indexOf(file);
+    LineIndex index = read(indexFile);
+    if (index != null
+        && index.size == attrs.size()
+        && index.lastModified == attrs.lastModifiedTime().toMillis()
+        && index.interval == interval)
+      return index;
+    final SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ);
+    try {
+      index = build(channel, interval, attrs.lastModifiedTime().toMillis());
+    }
+    finally {
+      channel.close();
+    }
+    final BasicFileAttributes after = Files.readAttributes(file, BasicFileAttributes.class);
+    if (after.size() == index.size && after.lastModifiedTime().toMillis() == index.lastModified) {
+      try {
+        index.write(indexFile);
+      }
+      catch (IOException e) {
+        // read-only, still usable
+        try {
+          Files.deleteIfExists(indexFile);
+        }
+        catch (IOException e2) {
+          // ignore
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Index the channel in one pass. The result isn't tied to a last modified time.
+   */
+  public static LineIndex build (SeekableByteChannel channel, int interval) throws IOException {
+    if (interval <= 0)
+      throw new IllegalArgumentException("interval");
+    return build(channel, interval, -1);
+  }
+
+  private static LineIndex build (SeekableByteChannel channel, int interval, long lastModified) throws IOException {
+    final long size = channel.size();
+    long[] offsets = new long[16];
+    int count = 1; // offsets[0] = 0
+    long line = 0;
+    long start = 0;
+    boolean cr = false;
+    final Scanner scanner = new Scanner(channel, size);
+    try {
+      for (long position = 0; position < size;) {
+        final ByteBuffer window = scanner.window(position);
+        final int limit = window.limit();
+        for (int i = window.position(); i < limit; ++i, ++position) {
+          final byte b = window.get(i);
+          if ((cr && b != '\n') || b == '\n') {
+            start = (b == '\n') ? position + 1 : position;
+            if (++line % interval == 0) {
+              if (count == offsets.length)
+                offsets = Arrays.copyOf(offsets, 2 * count);
+              offsets[count++] = start;
+            }
+          }
+          cr = (b == '\r');
+        }
+      }
+    }
+    finally {
+      scanner.release();
+    }
+    if (cr) {
+      start = size;
+      ++line;
+    }
+    final long lineCount = (start < size) ? line + 1 : line;
+    // drop an offset recorded for the end
+    if (count > 1 && offsets[count - 1] >= size)
+      --count;
+    return new LineIndex(size, lastModified, interval, lineCount, Arrays.copyOf(offsets, count));
+  }
+
+  public long size () {
+    return size;
+  }
+
+  public long lineCount () {
+    return lineCount;
+  }
+
+  public int interval () {
+    return interval;
+  }
+
+  /**
+   * Offset of the start of {@code line}, by scanning from the nearest indexed line.
+   *
+   * @param line zero based, or {@link #lineCount} for the end.
+   */
+  public long offsetOf (SeekableByteChannel channel, long line) throws IOException {
+    if (line < 0 || line > lineCount)
+      throw new IndexOutOfBoundsException();
+    if (line == lineCount)
+      return size;
+    final int k = (int)Math.min(line / interval, offsets.length - 1);
+    return skipLines(channel, offsets[k], line - (long)k * interval);
+  }
+
+  private long skipLines (SeekableByteChannel channel, long position, long lines) throws IOException {
+    if (lines == 0)
+      return position;
+    final Scanner scanner = new Scanner(channel, size);
+    try {
+      boolean cr = false;
+      while (position < size) {
+        final ByteBuffer window = scanner.window(position);
+        final int limit = window.limit();
+        for (int i = window.position(); i < limit; ++i, ++position) {
+          final byte b = window.get(i);
+          if (cr && b != '\n' && --lines == 0)
+            return position;
+          if (b == '\n' && --lines == 0)
+            return position + 1;
+          cr = (b == '\r');
+        }
+      }
+      return size;
+    }
+    finally {
+      scanner.release();
+    }
+  }
+
+  /**
+   * Open {@code file} positioned at the start of {@code line}.
+   */
+  public LineStream lines (Path file, long line, Charset charset) throws IOException {
+    final SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ);
+    try {
+      channel.position(offsetOf(channel, line));
+      return new LineReader(channel, charset);
+    }
+    catch (IOException e) {
+      Utils.closeQuietly(channel);
+      throw e;
+    }
+    catch (RuntimeException e) {
+      Utils.closeQuietly(channel);
+      throw e;
+    }
+  }
+
+  /**
+   * @return null if missing or invalid.
+   */
+  private static LineIndex read (Path file) throws IOException {
+    final DataInputStream in;
+    try {
+      in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+    }
+    catch (IOException e) {
+      if (!Files.exists(file))
+        return null;
+      throw e;
+    }
+    try {
+      if (MAGIC != in.readInt())
+        return null;
+      final long size = in.readLong();
+      final long lastModified = in.readLong();
+      final int interval = in.readInt();
+      final long lineCount = in.readLong();
+      final int count = in.readInt();
+      if (interval <= 0 || count <= 0 || count - 1 > lineCount / interval)
+        return null;
+      final long[] offsets = new long[count];
+      for (int i = 0; i < count; ++i)
+        offsets[i] = in.readLong();
+      return new LineIndex(size, lastModified, interval, lineCount, offsets);
+    }
+    catch (IOException e) {
+      // torn or foreign
+      return null;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private void write (Path file) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(36 + 8 * offsets.length);
+    final DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(MAGIC);
+      out.writeLong(size);
+      out.writeLong(lastModified);
+      out.writeInt(interval);
+      out.writeLong(lineCount);
+      out.writeInt(offsets.length);
+      for (final long offset : offsets)
+        out.writeLong(offset);
+    }
+    finally {
+      out.close();
+    }
+    Utils.writeDurably(file, bytes.toByteArray());
+  }
+
+  /**
+   * Windows of a channel, memory-mapped if possible.
+   */
+  private static final class Scanner {
+
+    private final SeekableByteChannel channel;
+    private final long size;
+    private ByteBuffer buffer;
+
+    Scanner (SeekableByteChannel channel, long size) {
+      this.channel = channel;
+      this.size = size;
+    }
+
+    /**
+     * @return bytes from {@code position}, non-empty unless at the end.
+     */
+    ByteBuffer window (long position) throws IOException {
+      if (channel instanceof Mappable)
+        return ((Mappable)channel).map(position, Math.min(size - position, MAP_REGION_SIZE));
+      if (buffer == null)
+        buffer = BufferPool.getInstance().acquire(BUFFER_SIZE, false);
+      buffer.clear();
+      buffer.limit((int)Math.min(buffer.capacity(), size - position));
+      if (SeekableByteChannels.readUpTo(channel, buffer, position) == 0)
+        throw new IOException("Unexpected end-of-file");
+      buffer.flip();
+      return buffer;
+    }
+
+    void release () {
+      BufferPool.getInstance().release(buffer);
+      buffer = null;
+    }
+
+  } // class Scanner
+
+}
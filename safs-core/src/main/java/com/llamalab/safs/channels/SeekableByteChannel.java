@@ -17,11 +17,32 @@
 package com.llamalab.safs.channels;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 
-public interface SeekableByteChannel extends ByteChannel {
+public interface SeekableByteChannel extends ByteChannel, ScatteringByteChannel, GatheringByteChannel {
   public long position () throws IOException;
   public SeekableByteChannel position (long newPosition) throws IOException;
   public long size () throws IOException;
   public SeekableByteChannel truncate (long size) throws IOException;
+
+  /**
+   * Non-standard, read at position without changing the channel position.
+   * @see java.nio.channels.FileChannel#read(ByteBuffer, long)
+   */
+  public int read (ByteBuffer dst, long position) throws IOException;
+
+  /**
+   * Non-standard, write at position without changing the channel position.
+   * @see java.nio.channels.FileChannel#write(ByteBuffer, long)
+   */
+  public int write (ByteBuffer src, long position) throws IOException;
+
+  /**
+   * Non-standard, write any updates to the storage device.
+   * @see java.nio.channels.FileChannel#force(boolean)
+   */
+  public void force (boolean metaData) throws IOException;
 }
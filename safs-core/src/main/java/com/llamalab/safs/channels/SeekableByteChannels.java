@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.channels;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Non-standard {@link SeekableByteChannel} utilities.
+ */
+public final class SeekableByteChannels {
+
+  /**
+   * Default max gap between ranges to merge into a single read.
+   */
+  public static final int DEFAULT_RANGE_GAP = 4096;
+  /**
+   * Max size of merged ranges.
+   */
+  private static final int MAX_MERGED_SIZE = 8 * 1024 * 1024;
+
+  private SeekableByteChannels () {}
+
+  /**
+   * Read at position until buffer is full, without changing the channel position.
+   * @throws EOFException if end-of-file is reached before buffer is full.
+   */
+  public static void readFully (SeekableByteChannel channel, ByteBuffer dst, long position) throws IOException {
+    while (dst.hasRemaining()) {
+      final int n = channel.read(dst, position);
+      if (n < 0)
+        throw new EOFException();
+      position += n;
+    }
+  }
+
+  /**
+   * Read at position until buffer is full or end-of-file, without changing the channel position.
+   * @return number of bytes read.
+   */
+  public static int readUpTo (SeekableByteChannel channel, ByteBuffer dst, long position) throws IOException {
+    final int start = dst.position();
+    while (dst.hasRemaining()) {
+      final int n = channel.read(dst, position);
+      if (n < 0)
+        break;
+      position += n;
+    }
+    return dst.position() - start;
+  }
+
+  public static List<ByteBuffer> readRanges (SeekableByteChannel channel, List<ByteRange> ranges) throws IOException {
+    return readRanges(channel, ranges, DEFAULT_RANGE_GAP);
+  }
+
+  /**
+   * Read multiple ranges with positional reads, merging ranges that overlap or are at most
+   * {@code maxGap} bytes apart into a single read. The returned buffers are read-only views,
+   * in the same order as the ranges, and are shorter than requested if the range extend beyond
+   * end-of-file. The channel position is not changed.
+   */
+  public static List<ByteBuffer> readRanges (SeekableByteChannel channel, final List<ByteRange> ranges, int maxGap) throws IOException {
+    if (maxGap < 0)
+      throw new IllegalArgumentException("maxGap");
+    final int count = ranges.size();
+    if (count == 0)
+      return Collections.emptyList();
+    final Integer[] order = new Integer[count];
+    for (int i = 0; i < count; ++i)
+      order[i] = i;
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare (Integer lhs, Integer rhs) {
+        return ranges.get(lhs).compareTo(ranges.get(rhs));
+      }
+    });
+    final ByteBuffer[] result = new ByteBuffer[count];
+    for (int s = 0; s < count;) {
+      // merge
+      final long start = ranges.get(order[s]).offset();
+      long end = ranges.get(order[s]).end();
+      int e = s + 1;
+      for (; e < count; ++e) {
+        final ByteRange range = ranges.get(order[e]);
+        final long mergedEnd = Math.max(end, range.end());
+        if (range.offset() - end > maxGap || mergedEnd - start > MAX_MERGED_SIZE)
+          break;
+        end = mergedEnd;
+      }
+      // read
+      final ByteBuffer buf = ByteBuffer.allocate((int)(end - start));
+      final int available = readUpTo(channel, buf, start);
+      for (; s < e; ++s) {
+        final ByteRange range = ranges.get(order[s]);
+        final int offset = (int)(range.offset() - start);
+        final ByteBuffer view = buf.duplicate();
+        view.limit(Math.min(offset + range.length(), available));
+        view.position(Math.min(offset, available));
+        result[order[s]] = view.slice().asReadOnlyBuffer();
+      }
+    }
+    return new ArrayList<ByteBuffer>(Arrays.asList(result));
+  }
+
+}
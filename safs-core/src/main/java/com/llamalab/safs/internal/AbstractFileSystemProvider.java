@@ -16,10 +16,12 @@
 
 package com.llamalab.safs.internal;
 
+import com.llamalab.safs.ExtendedOpenOption;
 import com.llamalab.safs.LinkOption;
 import com.llamalab.safs.NoSuchFileException;
 import com.llamalab.safs.OpenOption;
 import com.llamalab.safs.Path;
+import com.llamalab.safs.PreallocateOpenOption;
 import com.llamalab.safs.ProviderMismatchException;
 import com.llamalab.safs.StandardOpenOption;
 import com.llamalab.safs.attributes.BasicFileAttributeView;
@@ -27,12 +29,19 @@ import com.llamalab.safs.attributes.BasicFileAttributes;
 import com.llamalab.safs.attributes.FileAttribute;
 import com.llamalab.safs.attributes.FileAttributeView;
 import com.llamalab.safs.attributes.FileTime;
+import com.llamalab.safs.channels.BufferedSeekableByteChannel;
+import com.llamalab.safs.channels.SeekableByteChannel;
 import com.llamalab.safs.spi.FileSystemProvider;
 import com.llamalab.safs.unix.UnixPath;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -48,6 +57,11 @@ public abstract class AbstractFileSystemProvider extends FileSystemProvider {
   protected static final Set<? extends OpenOption> DEFAULT_NEW_INPUT_STREAM_OPTIONS = EnumSet.of(StandardOpenOption.READ);
   protected static final Set<? extends OpenOption> DEFAULT_NEW_OUTPUT_STREAM_OPTIONS = EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
 
+  /**
+   * Buffer all channels and streams, unless {@link ExtendedOpenOption#RANDOM}.
+   */
+  protected static final boolean BUFFERED_BY_DEFAULT = Boolean.getBoolean("com.llamalab.safs.buffered");
+
   protected abstract Class<? extends Path> getPathType ();
 
   protected void checkPath (Path path) {
@@ -62,6 +76,73 @@ public abstract class AbstractFileSystemProvider extends FileSystemProvider {
       throw new ProviderMismatchException();
   }
 
+  /**
+   * Apply {@link ExtendedOpenOption} to a newly opened channel, closing it on failure.
+   */
+  protected SeekableByteChannel wrapByteChannel (Path path, Set<? extends OpenOption> options, SeekableByteChannel channel) throws IOException {
+    try {
+      final PreallocateOpenOption preallocate = Utils.findOption(options, PreallocateOpenOption.class);
+      if (preallocate != null && options.contains(StandardOpenOption.WRITE) && !options.contains(StandardOpenOption.APPEND)) {
+        final long size = channel.size();
+        if (size < preallocate.size()) {
+          preallocate(channel, preallocate.size());
+          channel = new PreallocatedSeekableByteChannel(channel, size, preallocate.size());
+        }
+      }
+      final boolean random = options.contains(ExtendedOpenOption.RANDOM);
+      final boolean willNeed = options.contains(ExtendedOpenOption.WILL_NEED);
+      if (random && (willNeed || options.contains(ExtendedOpenOption.SEQUENTIAL)))
+        throw new IllegalArgumentException("RANDOM + SEQUENTIAL not allowed");
+      if (options.contains(ExtendedOpenOption.CACHED))
+        channel = new CachingSeekableByteChannel(this, path, channel, options.contains(StandardOpenOption.APPEND));
+      else if (options.contains(ExtendedOpenOption.BUFFERED))
+        channel = new BufferedSeekableByteChannel(channel, BufferedSeekableByteChannel.DEFAULT_BUFFER_SIZE, options.contains(StandardOpenOption.APPEND));
+      else if (!random && (willNeed || options.contains(ExtendedOpenOption.SEQUENTIAL)) && options.contains(StandardOpenOption.READ))
+        channel = new ReadAheadSeekableByteChannel(channel, options.contains(StandardOpenOption.APPEND), willNeed);
+      else if (!random && BUFFERED_BY_DEFAULT)
+        channel = new BufferedSeekableByteChannel(channel, BufferedSeekableByteChannel.DEFAULT_BUFFER_SIZE, options.contains(StandardOpenOption.APPEND));
+      return channel;
+    }
+    catch (IOException e) {
+      Utils.closeQuietly(channel);
+      throw e;
+    }
+    catch (RuntimeException e) {
+      Utils.closeQuietly(channel);
+      throw e;
+    }
+  }
+
+  /**
+   * Extend the file to {@code size}, allocating space if possible.
+   * This implementation writes the last byte, which allocate all space on file-systems without sparse files.
+   */
+  protected void preallocate (SeekableByteChannel channel, long size) throws IOException {
+    channel.write(ByteBuffer.allocate(1), size - 1);
+  }
+
+  /**
+   * Streams with a {@link PreallocateOpenOption} are opened as a channel.
+   */
+  protected static boolean isPreallocated (Set<? extends OpenOption> options) {
+    return Utils.findOption(options, PreallocateOpenOption.class) != null && !options.contains(StandardOpenOption.APPEND);
+  }
+
+  protected InputStream wrapInputStream (Set<? extends OpenOption> options, InputStream in) {
+    return (BUFFERED_BY_DEFAULT || options.contains(ExtendedOpenOption.BUFFERED)) ? new BufferedInputStream(in) : in;
+  }
+
+  protected OutputStream wrapOutputStream (Set<? extends OpenOption> options, OutputStream out) {
+    return (BUFFERED_BY_DEFAULT || options.contains(ExtendedOpenOption.BUFFERED)) ? new BufferedOutputStream(out) : out;
+  }
+
+  /**
+   * Must be called before a file is modified, other than through {@link #wrapByteChannel}.
+   */
+  protected void invalidateCache (Path path) {
+    BlockCache.getInstance().invalidate(path);
+  }
+
   protected IOException toProperException (IOException ioe, String file, String otherFile) {
     return (ioe instanceof FileNotFoundException) ? new NoSuchFileException(file) : ioe;
   }
@@ -16,13 +16,31 @@
 
 package com.llamalab.safs.internal;
 
+import com.llamalab.safs.DebounceWatchEventModifier;
+import com.llamalab.safs.DirectoryStream;
+import com.llamalab.safs.Files;
+import com.llamalab.safs.LinkOption;
+import com.llamalab.safs.NoSuchFileException;
+import com.llamalab.safs.OverflowWatchEventModifier;
+import com.llamalab.safs.Path;
 import com.llamalab.safs.StandardWatchEventKinds;
 import com.llamalab.safs.WatchEvent;
 import com.llamalab.safs.WatchKey;
 import com.llamalab.safs.Watchable;
+import com.llamalab.safs.attributes.BasicFileAttributes;
 
+import java.io.IOException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public abstract class AbstractWatchKey implements WatchKey {
 
@@ -36,6 +54,25 @@ public abstract class AbstractWatchKey implements WatchKey {
   private final int overflowLimit;
   private List<WatchEvent<?>> events = new ArrayList<WatchEvent<?>>();
   private State state = State.READY;
+  private long quietPeriod;
+  private long maxLatency;
+  private Map<Object,Event<?>> held;
+  private boolean releaseScheduled;
+  private Map<Path,Stamp> snapshot;
+  private Set<Path> trackedDuringScan;
+  private volatile boolean tracking;
+  private boolean rescanCreate;
+  private boolean rescanDelete;
+  private boolean rescanModify;
+  private final Runnable releaseTask = new Runnable() {
+    @Override
+    public void run () {
+      synchronized (eventLock) {
+        releaseScheduled = false;
+        releaseEvents(isValid() ? System.nanoTime() : Long.MIN_VALUE, false);
+      }
+    }
+  };
 
   public AbstractWatchKey (AbstractWatchService service, Watchable watchable, int overflowLimit) {
     this.service = service;
@@ -74,40 +111,340 @@ public abstract class AbstractWatchKey implements WatchKey {
 
   @Override
   public final List<WatchEvent<?>> pollEvents () {
+    final List<WatchEvent<?>> result;
+    final boolean rescan;
     synchronized (eventLock) {
-      final List<WatchEvent<?>> result = events;
+      result = events;
       events = new ArrayList<WatchEvent<?>>();
-      return result;
+      rescan = snapshot != null;
+    }
+    // OVERFLOW is always last, since following events are merged into it
+    final int last = result.size() - 1;
+    if (rescan && last >= 0 && StandardWatchEventKinds.OVERFLOW == result.get(last).kind()) {
+      synchronized (eventLock) {
+        trackedDuringScan = new HashSet<Path>();
+      }
+      try {
+        final Map<Path,Stamp> current = scan((Path)watchable);
+        result.remove(last);
+        synchronized (eventLock) {
+          // newer than the scan, and delivered by their own events
+          for (final Path name : trackedDuringScan) {
+            if (snapshot.containsKey(name))
+              current.put(name, snapshot.get(name));
+            else
+              current.remove(name);
+          }
+          diff(snapshot, current, result);
+          snapshot = current;
+        }
+      }
+      catch (IOException e) {
+        // deliver OVERFLOW
+      }
+      finally {
+        synchronized (eventLock) {
+          trackedDuringScan = null;
+        }
+      }
     }
+    return result;
+  }
+
+  /**
+   * Apply {@link DebounceWatchEventModifier} and {@link OverflowWatchEventModifier}, if any.
+   */
+  public final void applyModifiers (WatchEvent.Kind<?>[] kinds, WatchEvent.Modifier... modifiers) throws IOException {
+    for (final WatchEvent.Modifier modifier : modifiers) {
+      if (modifier instanceof DebounceWatchEventModifier) {
+        final DebounceWatchEventModifier debounce = (DebounceWatchEventModifier)modifier;
+        synchronized (eventLock) {
+          quietPeriod = debounce.quietPeriod(TimeUnit.NANOSECONDS);
+          maxLatency = debounce.maxLatency(TimeUnit.NANOSECONDS);
+        }
+      }
+      else if (OverflowWatchEventModifier.RESCAN == modifier) {
+        if (!(watchable instanceof Path))
+          throw new UnsupportedOperationException("Modifier: "+modifier);
+        boolean create = false, delete = false, modify = false;
+        for (final WatchEvent.Kind<?> kind : kinds) {
+          if (StandardWatchEventKinds.ENTRY_CREATE == kind)
+            create = true;
+          else if (StandardWatchEventKinds.ENTRY_DELETE == kind)
+            delete = true;
+          else if (StandardWatchEventKinds.ENTRY_MODIFY == kind)
+            modify = true;
+        }
+        if (create || delete || modify) {
+          final Map<Path,Stamp> current = scan((Path)watchable);
+          synchronized (eventLock) {
+            rescanCreate = create;
+            rescanDelete = delete;
+            rescanModify = modify;
+            snapshot = current;
+          }
+          tracking = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Kinds the implementation has to observe; the registered kinds, and with {@link OverflowWatchEventModifier#RESCAN}
+   * all entry kinds, since the snapshot must follow every change.
+   * Events of unregistered kinds only update the snapshot, and are never delivered.
+   */
+  public final WatchEvent.Kind<?>[] observedKinds (WatchEvent.Kind<?>[] kinds) {
+    if (!tracking)
+      return kinds;
+    final Set<WatchEvent.Kind<?>> observed = new LinkedHashSet<WatchEvent.Kind<?>>();
+    for (final WatchEvent.Kind<?> kind : kinds)
+      observed.add(kind);
+    observed.add(StandardWatchEventKinds.ENTRY_CREATE);
+    observed.add(StandardWatchEventKinds.ENTRY_DELETE);
+    observed.add(StandardWatchEventKinds.ENTRY_MODIFY);
+    return observed.toArray(new WatchEvent.Kind<?>[observed.size()]);
   }
 
   protected final <T> void signalEvent (WatchEvent.Kind<T> kind, T context) {
+    // stat outside of lock, so a lost change to the same entry shows up as a stamp mismatch on rescan
+    final Stamp stamp = tracking && context instanceof Path
+        && (StandardWatchEventKinds.ENTRY_CREATE == kind || StandardWatchEventKinds.ENTRY_MODIFY == kind)
+        ? stat((Path)context) : null;
     synchronized (eventLock) {
-      final int size = events.size();
-      if (size > 0) {
-        final Event<?> event = (Event<?>)events.get(size - 1);
-        if (   StandardWatchEventKinds.OVERFLOW == event.kind
-            || (event.kind == kind && Utils.equals(event.context, context))) {
-          ++event.count;
-          return;
-        }
+      if (snapshot != null && !isRegistered(kind))
+        track(kind, context, stamp);
+      else if (quietPeriod > 0 && StandardWatchEventKinds.OVERFLOW != kind)
+        holdEvent(kind, context, stamp);
+      else {
+        final Event<T> event = new Event<T>(kind, context);
+        event.stamp = stamp;
+        addEvent(event);
+      }
+    }
+  }
+
+  /**
+   * Must hold eventLock.
+   */
+  private boolean isRegistered (WatchEvent.Kind<?> kind) {
+    if (StandardWatchEventKinds.ENTRY_CREATE == kind)
+      return rescanCreate;
+    if (StandardWatchEventKinds.ENTRY_DELETE == kind)
+      return rescanDelete;
+    if (StandardWatchEventKinds.ENTRY_MODIFY == kind)
+      return rescanModify;
+    return true;
+  }
+
+  private <T> void holdEvent (WatchEvent.Kind<T> kind, T context, Stamp stamp) {
+    final long now = System.nanoTime();
+    if (held == null)
+      held = new LinkedHashMap<Object,Event<?>>();
+    final Object heldKey = new AbstractMap.SimpleImmutableEntry<WatchEvent.Kind<?>,Object>(kind, context);
+    Event<?> event = held.get(heldKey);
+    if (event != null) {
+      ++event.count;
+      event.stamp = stamp;
+    }
+    else {
+      held.put(heldKey, event = new Event<T>(kind, context));
+      event.stamp = stamp;
+      event.first = now;
+      if (held.size() > overflowLimit) {
+        // let it overflow
+        releaseEvents(now, true);
+        return;
+      }
+    }
+    event.last = now;
+    if (!releaseScheduled)
+      scheduleRelease(quietPeriod);
+  }
+
+  /**
+   * Must hold eventLock.
+   */
+  private void releaseEvents (long now, boolean all) {
+    if (held == null)
+      return;
+    if (now == Long.MIN_VALUE) {
+      held.clear();
+      return;
+    }
+    long next = Long.MAX_VALUE;
+    for (final Iterator<Event<?>> i = held.values().iterator(); i.hasNext();) {
+      final Event<?> event = i.next();
+      final long delay = Math.min(event.last + quietPeriod, event.first + maxLatency) - now;
+      if (all || delay <= 0) {
+        i.remove();
+        addEvent(event);
+      }
+      else if (delay < next)
+        next = delay;
+    }
+    if (!held.isEmpty() && !releaseScheduled)
+      scheduleRelease(next);
+  }
+
+  private void scheduleRelease (long delay) {
+    if (service.schedule(releaseTask, delay, TimeUnit.NANOSECONDS) != null)
+      releaseScheduled = true;
+    else
+      held.clear();
+  }
+
+  /**
+   * Must hold eventLock.
+   */
+  private void addEvent (Event<?> event) {
+    final int size = events.size();
+    if (size > 0) {
+      final Event<?> tail = (Event<?>)events.get(size - 1);
+      if (StandardWatchEventKinds.OVERFLOW == tail.kind) {
+        // not reported, left for the rescan
+        tail.count += event.count;
+        return;
       }
-      if (size < overflowLimit)
-        events.add(new Event<T>(kind, context));
+      if (tail.kind == event.kind && Utils.equals(tail.context, event.context)) {
+        tail.count += event.count;
+        track(event.kind, event.context, event.stamp);
+        return;
+      }
+    }
+    if (size < overflowLimit) {
+      events.add(event);
+      track(event.kind, event.context, event.stamp);
+    }
+    else
+      events.add(new Event<Object>(StandardWatchEventKinds.OVERFLOW, null));
+    if (State.READY == state) {
+      state = State.SIGNALLED;
+      service.offer(this);
+    }
+  }
+
+  /**
+   * Must hold eventLock.
+   */
+  private void track (WatchEvent.Kind<?> kind, Object context, Stamp stamp) {
+    if (snapshot != null && context instanceof Path) {
+      final Path name = ((Path)context).getFileName();
+      if (StandardWatchEventKinds.ENTRY_DELETE == kind)
+        snapshot.remove(name);
+      else if (StandardWatchEventKinds.ENTRY_CREATE == kind || StandardWatchEventKinds.ENTRY_MODIFY == kind)
+        snapshot.put(name, stamp); // null if unknown, always a modify on rescan
       else
-        events.add(new Event<Object>(StandardWatchEventKinds.OVERFLOW, null));
-      if (State.READY == state) {
-        state = State.SIGNALLED;
-        service.offer(this);
+        return;
+      if (trackedDuringScan != null)
+        trackedDuringScan.add(name);
+    }
+  }
+
+  private Stamp stat (Path name) {
+    try {
+      return new Stamp(Files.readAttributes(((Path)watchable).resolve(name), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static Map<Path,Stamp> scan (Path dir) throws IOException {
+    final Map<Path,Stamp> stamps = new HashMap<Path,Stamp>();
+    final DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+    try {
+      for (final Path entry : stream) {
+        try {
+          stamps.put(entry.getFileName(), new Stamp(Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)));
+        }
+        catch (NoSuchFileException e) {
+          // gone
+        }
+      }
+    }
+    finally {
+      stream.close();
+    }
+    return stamps;
+  }
+
+  /**
+   * Must hold eventLock.
+   */
+  private void diff (Map<Path,Stamp> previous, Map<Path,Stamp> current, List<WatchEvent<?>> result) {
+    for (final Map.Entry<Path,Stamp> entry : current.entrySet()) {
+      final Path name = entry.getKey();
+      if (trackedDuringScan.contains(name))
+        continue;
+      if (!previous.containsKey(name)) {
+        if (rescanCreate)
+          result.add(new Event<Path>(StandardWatchEventKinds.ENTRY_CREATE, name));
+      }
+      else {
+        final Stamp stamp = previous.get(name);
+        if (stamp != null && stamp.isReplacedBy(entry.getValue())) {
+          if (rescanDelete)
+            result.add(new Event<Path>(StandardWatchEventKinds.ENTRY_DELETE, name));
+          if (rescanCreate)
+            result.add(new Event<Path>(StandardWatchEventKinds.ENTRY_CREATE, name));
+        }
+        else if (rescanModify && (stamp == null || !stamp.equals(entry.getValue())))
+          result.add(new Event<Path>(StandardWatchEventKinds.ENTRY_MODIFY, name));
+      }
+    }
+    if (rescanDelete) {
+      for (final Path name : previous.keySet()) {
+        if (!current.containsKey(name))
+          result.add(new Event<Path>(StandardWatchEventKinds.ENTRY_DELETE, name));
       }
     }
   }
 
+  private static final class Stamp {
+
+    private final long size;
+    private final long lastModified;
+    private final boolean directory;
+    private final Object fileKey;
+
+    public Stamp (BasicFileAttributes attrs) {
+      this.size = attrs.size();
+      this.lastModified = attrs.lastModifiedTime().toMillis();
+      this.directory = attrs.isDirectory();
+      this.fileKey = attrs.fileKey();
+    }
+
+    /**
+     * Deleted and re-created under the same name, only detectable if the provider has file keys.
+     */
+    public boolean isReplacedBy (Stamp other) {
+      return fileKey != null && other.fileKey != null && !fileKey.equals(other.fileKey);
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+      if (!(obj instanceof Stamp))
+        return false;
+      final Stamp other = (Stamp)obj;
+      return size == other.size && lastModified == other.lastModified && directory == other.directory && Utils.equals(fileKey, other.fileKey);
+    }
+
+    @Override
+    public int hashCode () {
+      return (int)(size ^ lastModified);
+    }
+
+  } // class Stamp
+
   private static final class Event<T> implements WatchEvent<T> {
 
     private final WatchEvent.Kind<T> kind;
     private final T context;
     private int count = 1;
+    private Stamp stamp;
+    private long first;
+    private long last;
 
     public Event (WatchEvent.Kind<T> kind, T context) {
       this.kind = kind;
@@ -25,6 +25,10 @@ import com.llamalab.safs.Watchable;
 import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -58,11 +62,31 @@ public abstract class AbstractWatchService implements WatchService {
   };
   private final LinkedBlockingDeque<WatchKey> pendingKeys = new LinkedBlockingDeque<WatchKey>();
   private final AtomicBoolean closed = new AtomicBoolean();
+  private ScheduledExecutorService scheduler;
 
   final void offer (WatchKey key) {
     pendingKeys.offer(key);
   }
 
+  /**
+   * Lazily started single daemon thread, used for delayed delivery of debounced events.
+   */
+  final synchronized ScheduledFuture<?> schedule (Runnable task, long delay, TimeUnit unit) {
+    if (closed.get())
+      return null;
+    if (scheduler == null) {
+      scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread (Runnable r) {
+          final Thread thread = new Thread(r, "WatchService-scheduler");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return scheduler.schedule(task, delay, unit);
+  }
+
   @Override
   public final WatchKey poll () {
     checkOpen();
@@ -88,6 +112,10 @@ public abstract class AbstractWatchService implements WatchService {
         implCloseService();
       }
       finally {
+        synchronized (this) {
+          if (scheduler != null)
+            scheduler.shutdownNow();
+        }
         pendingKeys.clear();
         pendingKeys.offer(CLOSE_KEY);
       }
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import com.llamalab.safs.Path;
+import com.llamalab.safs.attributes.BasicFileAttributes;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of fixed size file blocks, shared by all {@link CachingSeekableByteChannel}.
+ * <p>
+ * Blocks of a file are dropped when the file is opened for write, deleted or moved through a provider,
+ * when written through a caching channel, and when a caching channel is opened and the file size or
+ * last modified time has changed. Writes through channels already open are not detected until then.
+ */
+public final class BlockCache {
+
+  public static final int BLOCK_SIZE = 64 * 1024;
+  private static final long DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+  private static final BlockCache INSTANCE = new BlockCache();
+
+  private final Map<Path,FileEntry> files = new HashMap<Path,FileEntry>();
+  private final LinkedHashMap<BlockKey,Block> blocks = new LinkedHashMap<BlockKey,Block>(16, 0.75f, true);
+  private long capacity = DEFAULT_CAPACITY;
+  private long used;
+
+  private BlockCache () {}
+
+  public static BlockCache getInstance () {
+    return INSTANCE;
+  }
+
+  public synchronized long getCapacity () {
+    return capacity;
+  }
+
+  /**
+   * Global memory budget in bytes, zero disables caching.
+   */
+  public synchronized void setCapacity (long capacity) {
+    if (capacity < 0)
+      throw new IllegalArgumentException();
+    this.capacity = capacity;
+    trim();
+  }
+
+  public synchronized void clear () {
+    files.clear();
+    blocks.clear();
+    used = 0;
+  }
+
+  public void invalidate (Path path) {
+    synchronized (this) {
+      if (files.isEmpty())
+        return;
+    }
+    final Path key = path.toAbsolutePath().normalize();
+    synchronized (this) {
+      final FileEntry entry = files.remove(key);
+      if (entry != null)
+        removeBlocks(entry, 0, Long.MAX_VALUE);
+    }
+  }
+
+  /**
+   * Entry of file, dropping any cached blocks if its size or last modified time has changed.
+   */
+  synchronized FileEntry open (Path path, BasicFileAttributes attrs) {
+    final Path key = path.toAbsolutePath().normalize();
+    final long size = attrs.size();
+    final long lastModified = attrs.lastModifiedTime().toMillis();
+    FileEntry entry = files.get(key);
+    if (entry != null && (entry.size != size || entry.lastModified != lastModified)) {
+      removeBlocks(entry, 0, Long.MAX_VALUE);
+      entry = null;
+    }
+    if (entry == null)
+      files.put(key, entry = new FileEntry(key, size, lastModified));
+    ++entry.references;
+    return entry;
+  }
+
+  synchronized void close (FileEntry entry, BasicFileAttributes attrs) {
+    --entry.references;
+    if (attrs != null) {
+      // written through caching channel, so still valid
+      entry.size = attrs.size();
+      entry.lastModified = attrs.lastModifiedTime().toMillis();
+    }
+    release(entry);
+  }
+
+  synchronized Block get (FileEntry entry, long index) {
+    return blocks.get(new BlockKey(entry, index));
+  }
+
+  synchronized void put (FileEntry entry, long index, Block block) {
+    if (capacity < BLOCK_SIZE || files.get(entry.path) != entry)
+      return;
+    final Block old = blocks.put(new BlockKey(entry, index), block);
+    if (old != null)
+      used -= old.data.length;
+    else
+      ++entry.blockCount;
+    used += block.data.length;
+    trim();
+  }
+
+  /**
+   * Drop blocks overlapping [start, end), and any partial end-of-file block since the file may have grown.
+   */
+  synchronized void invalidate (FileEntry entry, long start, long end) {
+    removeBlocks(entry, start, end);
+  }
+
+  private void removeBlocks (FileEntry entry, long start, long end) {
+    final long first = start / BLOCK_SIZE;
+    final long last = (end == Long.MAX_VALUE) ? Long.MAX_VALUE : (end + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    for (final Iterator<Map.Entry<BlockKey,Block>> i = blocks.entrySet().iterator(); i.hasNext();) {
+      final Map.Entry<BlockKey,Block> e = i.next();
+      final BlockKey key = e.getKey();
+      if (key.entry == entry && ((key.index >= first && key.index < last) || e.getValue().length < BLOCK_SIZE)) {
+        used -= e.getValue().data.length;
+        --entry.blockCount;
+        i.remove();
+      }
+    }
+  }
+
+  private void trim () {
+    for (final Iterator<Map.Entry<BlockKey,Block>> i = blocks.entrySet().iterator(); used > capacity && i.hasNext();) {
+      final Map.Entry<BlockKey,Block> e = i.next();
+      final FileEntry entry = e.getKey().entry;
+      used -= e.getValue().data.length;
+      --entry.blockCount;
+      i.remove();
+      release(entry);
+    }
+  }
+
+  private void release (FileEntry entry) {
+    if (entry.references == 0 && entry.blockCount == 0 && files.get(entry.path) == entry)
+      files.remove(entry.path);
+  }
+
+
+  static final class FileEntry {
+
+    final Path path;
+    long size;
+    long lastModified;
+    int references;
+    int blockCount;
+
+    FileEntry (Path path, long size, long lastModified) {
+      this.path = path;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+  } // class FileEntry
+
+  static final class Block {
+
+    final byte[] data;
+    /** Valid bytes, less than block size at end-of-file. */
+    final int length;
+
+    Block (byte[] data, int length) {
+      this.data = data;
+      this.length = length;
+    }
+
+  } // class Block
+
+  private static final class BlockKey {
+
+    final FileEntry entry;
+    final long index;
+
+    BlockKey (FileEntry entry, long index) {
+      this.entry = entry;
+      this.index = index;
+    }
+
+    @Override
+    public int hashCode () {
+      return System.identityHashCode(entry) * 31 + (int)(index ^ (index >>> 32));
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+      if (!(obj instanceof BlockKey))
+        return false;
+      final BlockKey other = (BlockKey)obj;
+      return entry == other.entry && index == other.index;
+    }
+
+  } // class BlockKey
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of heap and direct {@link ByteBuffer}, shared by all I/O paths.
+ * <p>
+ * Buffers are pooled in power of two size classes, from {@link #MIN_SIZE} to {@link #MAX_SIZE},
+ * larger are never pooled. Each thread keeps one buffer per size class up to {@link #LOCAL_MAX_SIZE},
+ * others are returned to a global pool bounded by {@link #setCapacity capacity}.
+ * A released buffer must not be used again.
+ */
+public final class BufferPool {
+
+  public static final int MIN_SIZE = 4 * 1024;
+  public static final int MAX_SIZE = 1024 * 1024;
+  public static final int LOCAL_MAX_SIZE = 64 * 1024;
+  private static final long DEFAULT_CAPACITY = 8 * 1024 * 1024;
+
+  private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE / MIN_SIZE) + 1;
+  private static final int LOCAL_CLASSES = Integer.numberOfTrailingZeros(LOCAL_MAX_SIZE / MIN_SIZE) + 1;
+
+  private static final BufferPool INSTANCE = new BufferPool();
+
+  private final Pool heap = new Pool();
+  private final Pool direct = new Pool();
+  private long capacity = DEFAULT_CAPACITY;
+  private long used;
+
+  private BufferPool () {}
+
+  public static BufferPool getInstance () {
+    return INSTANCE;
+  }
+
+  public synchronized long getCapacity () {
+    return capacity;
+  }
+
+  /**
+   * Max bytes held by the global pool, zero disables it.
+   */
+  public synchronized void setCapacity (long capacity) {
+    if (capacity < 0)
+      throw new IllegalArgumentException();
+    this.capacity = capacity;
+    if (used > capacity)
+      clear();
+  }
+
+  public synchronized void clear () {
+    for (int c = 0; c < CLASSES; ++c) {
+      heap.global[c].clear();
+      direct.global[c].clear();
+    }
+    used = 0;
+  }
+
+  /**
+   * @return cleared buffer with a capacity of at least {@code size}, but limited to {@code size}.
+   */
+  public ByteBuffer acquire (int size, boolean direct) {
+    if (size < 0)
+      throw new IllegalArgumentException();
+    final int c = sizeClass(size);
+    if (c < 0)
+      return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    final Pool pool = direct ? this.direct : this.heap;
+    ByteBuffer buf = null;
+    if (c < LOCAL_CLASSES) {
+      final ByteBuffer[] local = pool.local.get();
+      buf = local[c];
+      local[c] = null;
+    }
+    if (buf == null) {
+      synchronized (this) {
+        buf = pool.global[c].pollFirst();
+        if (buf != null)
+          used -= buf.capacity();
+      }
+      if (buf == null) {
+        final int capacity = MIN_SIZE << c;
+        buf = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+      }
+    }
+    buf.clear().limit(size);
+    return buf;
+  }
+
+  /**
+   * Heap buffer array of at least {@code size}.
+   */
+  public byte[] acquireArray (int size) {
+    return acquire(size, false).array();
+  }
+
+  public void release (ByteBuffer buf) {
+    if (buf == null || buf.isReadOnly())
+      return;
+    final int capacity = buf.capacity();
+    final int c = sizeClass(capacity);
+    if (c < 0 || (MIN_SIZE << c) != capacity)
+      return;
+    if (!buf.isDirect() && buf.arrayOffset() != 0)
+      return;
+    final Pool pool = buf.isDirect() ? this.direct : this.heap;
+    if (c < LOCAL_CLASSES) {
+      final ByteBuffer[] local = pool.local.get();
+      if (local[c] == null) {
+        local[c] = buf;
+        return;
+      }
+    }
+    synchronized (this) {
+      if (used + capacity <= this.capacity) {
+        pool.global[c].addFirst(buf);
+        used += capacity;
+      }
+    }
+  }
+
+  public void releaseArray (byte[] array) {
+    if (array != null)
+      release(ByteBuffer.wrap(array));
+  }
+
+  private static int sizeClass (int size) {
+    if (size > MAX_SIZE)
+      return -1;
+    if (size <= MIN_SIZE)
+      return 0;
+    return 32 - Integer.numberOfLeadingZeros((size - 1) / MIN_SIZE);
+  }
+
+  private static final class Pool {
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    final ArrayDeque<ByteBuffer>[] global = new ArrayDeque[CLASSES];
+    final ThreadLocal<ByteBuffer[]> local = new ThreadLocal<ByteBuffer[]>() {
+      @Override
+      protected ByteBuffer[] initialValue () {
+        return new ByteBuffer[LOCAL_CLASSES];
+      }
+    };
+
+    Pool () {
+      for (int c = 0; c < CLASSES; ++c)
+        global[c] = new ArrayDeque<ByteBuffer>();
+    }
+
+  } // class Pool
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import com.llamalab.safs.Path;
+import com.llamalab.safs.attributes.BasicFileAttributes;
+import com.llamalab.safs.channels.SeekableByteChannel;
+import com.llamalab.safs.channels.SeekableByteChannels;
+import com.llamalab.safs.spi.FileSystemProvider;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+/**
+ * Serves reads from the shared {@link BlockCache}, writes through and drops the written blocks.
+ */
+public final class CachingSeekableByteChannel implements SeekableByteChannel {
+
+  private final BlockCache cache = BlockCache.getInstance();
+  private final FileSystemProvider provider;
+  private final Path path;
+  private final SeekableByteChannel channel;
+  private final boolean append;
+  private final BlockCache.FileEntry entry;
+  private long position;
+  private boolean written;
+  private boolean closed;
+
+  public CachingSeekableByteChannel (FileSystemProvider provider, Path path, SeekableByteChannel channel, boolean append) throws IOException {
+    this.provider = provider;
+    this.path = path;
+    this.channel = channel;
+    this.append = append;
+    this.entry = cache.open(path, provider.readAttributes(path, BasicFileAttributes.class));
+  }
+
+  @Override
+  public boolean isOpen () {
+    return !closed;
+  }
+
+  @Override
+  public void close () throws IOException {
+    if (closed)
+      return;
+    closed = true;
+    BasicFileAttributes attrs = null;
+    try {
+      channel.close();
+      if (written)
+        attrs = provider.readAttributes(path, BasicFileAttributes.class);
+    }
+    finally {
+      if (written && attrs == null)
+        cache.invalidate(entry, 0, Long.MAX_VALUE);
+      cache.close(entry, attrs);
+    }
+  }
+
+  private void checkOpen () throws ClosedChannelException {
+    if (closed)
+      throw new ClosedChannelException();
+  }
+
+  @Override
+  public int read (ByteBuffer dst) throws IOException {
+    final int n = read(dst, position);
+    if (n > 0)
+      position += n;
+    return n;
+  }
+
+  @Override
+  public int read (ByteBuffer dst, long position) throws IOException {
+    if (position < 0)
+      throw new IllegalArgumentException();
+    checkOpen();
+    final int start = dst.position();
+    while (dst.hasRemaining()) {
+      final long index = position / BlockCache.BLOCK_SIZE;
+      final BlockCache.Block block = block(index);
+      final int offset = (int)(position - index * BlockCache.BLOCK_SIZE);
+      final int n = Math.min(block.length - offset, dst.remaining());
+      if (n <= 0)
+        break; // end-of-file
+      dst.put(block.data, offset, n);
+      position += n;
+      if (block.length < BlockCache.BLOCK_SIZE)
+        break;
+    }
+    final int n = dst.position() - start;
+    return (n == 0 && dst.hasRemaining()) ? -1 : n;
+  }
+
+  private BlockCache.Block block (long index) throws IOException {
+    BlockCache.Block block = cache.get(entry, index);
+    if (block == null) {
+      final byte[] data = new byte[BlockCache.BLOCK_SIZE];
+      final int length = SeekableByteChannels.readUpTo(channel, ByteBuffer.wrap(data), index * BlockCache.BLOCK_SIZE);
+      cache.put(entry, index, block = new BlockCache.Block(data, length));
+    }
+    return block;
+  }
+
+  @Override
+  public long read (ByteBuffer[] dsts) throws IOException {
+    return read(dsts, 0, dsts.length);
+  }
+
+  @Override
+  public long read (ByteBuffer[] dsts, int offset, int length) throws IOException {
+    if ((offset | length) < 0 || offset > dsts.length - length)
+      throw new IndexOutOfBoundsException();
+    long total = 0;
+    for (int i = offset, e = offset + length; i < e; ++i) {
+      if (!dsts[i].hasRemaining())
+        continue;
+      final int n = read(dsts[i]);
+      if (n < 0)
+        return (total == 0) ? -1 : total;
+      total += n;
+      if (dsts[i].hasRemaining())
+        break;
+    }
+    return total;
+  }
+
+  @Override
+  public int write (ByteBuffer src) throws IOException {
+    checkOpen();
+    if (append)
+      position = channel.size();
+    final int n = write(src, position);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int write (ByteBuffer src, long position) throws IOException {
+    checkOpen();
+    written = true;
+    final int n = channel.write(src, position);
+    cache.invalidate(entry, position, position + n);
+    return n;
+  }
+
+  @Override
+  public long write (ByteBuffer[] srcs) throws IOException {
+    return write(srcs, 0, srcs.length);
+  }
+
+  @Override
+  public long write (ByteBuffer[] srcs, int offset, int length) throws IOException {
+    if ((offset | length) < 0 || offset > srcs.length - length)
+      throw new IndexOutOfBoundsException();
+    checkOpen();
+    if (append)
+      position = channel.size();
+    written = true;
+    channel.position(position);
+    final long n = channel.write(srcs, offset, length);
+    cache.invalidate(entry, position, position + n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public long position () throws IOException {
+    checkOpen();
+    return position;
+  }
+
+  @Override
+  public SeekableByteChannel position (long newPosition) throws IOException {
+    if (newPosition < 0)
+      throw new IllegalArgumentException();
+    checkOpen();
+    position = newPosition;
+    return this;
+  }
+
+  @Override
+  public void force (boolean metaData) throws IOException {
+    checkOpen();
+    channel.force(metaData);
+  }
+
+  @Override
+  public long size () throws IOException {
+    return channel.size();
+  }
+
+  @Override
+  public SeekableByteChannel truncate (long size) throws IOException {
+    checkOpen();
+    written = true;
+    channel.truncate(size);
+    cache.invalidate(entry, size, Long.MAX_VALUE);
+    if (position > size)
+      position = size;
+    return this;
+  }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import com.llamalab.safs.CopyOption;
+import com.llamalab.safs.CopyProgress;
+import com.llamalab.safs.FileAlreadyExistsException;
+import com.llamalab.safs.Files;
+import com.llamalab.safs.Path;
+import com.llamalab.safs.StandardCopyOption;
+import com.llamalab.safs.StandardOpenOption;
+import com.llamalab.safs.attributes.BasicFileAttributes;
+import com.llamalab.safs.channels.SeekableByteChannel;
+import com.llamalab.safs.channels.SeekableByteChannels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Updates an existing regular file in place from a source, comparing them in {@link #BLOCK_SIZE}
+ * blocks at the same offsets, and writing only runs of differing blocks with positional writes.
+ * The target is then extended or truncated to the size of the source, and forced.
+ * <p>
+ * Since the target is patched in place, a block can only be kept at its own offset. Data shifted
+ * by an insert is rewritten, but unchanged prefixes, appends and in-place patches aren't.
+ * An interrupted update leaves a mix of old and new content.
+ */
+public final class DeltaCopy {
+
+  public static final int BLOCK_SIZE = 4096;
+  private static final int WINDOW_SIZE = 1024 * 1024;
+
+  private DeltaCopy () {}
+
+  /**
+   * @return number of bytes written to the target.
+   */
+  public static long copy (Path source, Path target, CopyOption... options) throws IOException {
+    boolean replaceExisting = false;
+    boolean copyAttributes = false;
+    CopyProgress progress = null;
+    for (final CopyOption option : options) {
+      if (StandardCopyOption.REPLACE_EXISTING == option)
+        replaceExisting = true;
+      else if (StandardCopyOption.COPY_ATTRIBUTES == option)
+        copyAttributes = true;
+      else if (option instanceof CopyProgress)
+        progress = (CopyProgress)option;
+    }
+    if (!replaceExisting)
+      throw new FileAlreadyExistsException(target.toString());
+    final BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+    final long written;
+    final SeekableByteChannel in = Files.newByteChannel(source, StandardOpenOption.READ);
+    try {
+      final SeekableByteChannel out = Files.newByteChannel(target, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      try {
+        written = update(in, out, progress);
+      }
+      finally {
+        out.close();
+      }
+    }
+    finally {
+      in.close();
+    }
+    if (copyAttributes)
+      Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+    return written;
+  }
+
+  private static long update (SeekableByteChannel in, SeekableByteChannel out, CopyProgress progress) throws IOException {
+    final BufferPool pool = BufferPool.getInstance();
+    final ByteBuffer src = pool.acquire(WINDOW_SIZE, true);
+    final ByteBuffer dst = pool.acquire(WINDOW_SIZE, true);
+    try {
+      final long size = in.size();
+      final long targetSize = out.size();
+      long written = 0;
+      for (long position = 0; position < size;) {
+        if (progress != null)
+          progress.checkCancelled();
+        final long time = System.nanoTime();
+        final int length = (int)Math.min(WINDOW_SIZE, size - position);
+        src.clear();
+        src.limit(length);
+        SeekableByteChannels.readFully(in, src, position);
+        dst.clear();
+        dst.limit((int)Math.max(0, Math.min(length, targetSize - position)));
+        SeekableByteChannels.readFully(out, dst, position);
+        // write runs of differing blocks
+        int run = -1;
+        for (int b = 0; b < length; b += BLOCK_SIZE) {
+          final int e = Math.min(b + BLOCK_SIZE, length);
+          final boolean differs = e > dst.limit() || !equals(src, dst, b, e);
+          if (differs && run < 0)
+            run = b;
+          else if (!differs && run >= 0) {
+            written += write(out, src, run, b, position);
+            run = -1;
+          }
+        }
+        if (run >= 0)
+          written += write(out, src, run, length, position);
+        position += length;
+        if (progress != null)
+          progress.chunkCopied(position, size, length, System.nanoTime() - time);
+      }
+      if (targetSize > size)
+        out.truncate(size);
+      out.force(true);
+      return written;
+    }
+    finally {
+      pool.release(src);
+      pool.release(dst);
+    }
+  }
+
+  private static boolean equals (ByteBuffer a, ByteBuffer b, int start, int end) {
+    int i = start;
+    for (final int e = end - 8; i <= e; i += 8) {
+      if (a.getLong(i) != b.getLong(i))
+        return false;
+    }
+    for (; i < end; ++i) {
+      if (a.get(i) != b.get(i))
+        return false;
+    }
+    return true;
+  }
+
+  private static int write (SeekableByteChannel out, ByteBuffer src, int start, int end, long position) throws IOException {
+    final ByteBuffer run = src.duplicate();
+    run.limit(end);
+    run.position(start);
+    for (long p = position + start; run.hasRemaining();)
+      p += out.write(run, p);
+    return end - start;
+  }
+
+}
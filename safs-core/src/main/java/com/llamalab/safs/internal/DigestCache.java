@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import com.llamalab.safs.Files;
+import com.llamalab.safs.Path;
+import com.llamalab.safs.attributes.BasicFileAttributes;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of file digests, valid while the size, last modified time and file key of
+ * the file are unchanged. May be {@link #load loaded} from and {@link #store stored} to a file.
+ */
+public final class DigestCache {
+
+  private static final int DEFAULT_CAPACITY = 4096;
+  private static final int MAGIC = 0x44474331; // DGC1
+
+  private static final DigestCache INSTANCE = new DigestCache();
+
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+  private int capacity = DEFAULT_CAPACITY;
+
+  private DigestCache () {}
+
+  public static DigestCache getInstance () {
+    return INSTANCE;
+  }
+
+  public synchronized int getCapacity () {
+    return capacity;
+  }
+
+  /**
+   * Max number of cached digests, zero disables the cache.
+   */
+  public synchronized void setCapacity (int capacity) {
+    if (capacity < 0)
+      throw new IllegalArgumentException();
+    this.capacity = capacity;
+    trim();
+  }
+
+  public synchronized void clear () {
+    entries.clear();
+  }
+
+  public byte[] digest (Path path, String algorithm, boolean tree) throws IOException {
+    final Key key = new Key(path.toAbsolutePath().toString(), algorithm, tree);
+    final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+    final Entry expected = new Entry(attrs, null);
+    synchronized (this) {
+      final Entry entry = entries.get(key);
+      if (entry != null && entry.matches(expected))
+        return entry.digest.clone();
+    }
+    final byte[] digest = Digests.digest(path, algorithm, tree);
+    // don't cache if modified while hashing
+    final Entry entry = new Entry(Files.readAttributes(path, BasicFileAttributes.class), digest);
+    if (entry.matches(expected)) {
+      synchronized (this) {
+        entries.put(key, entry);
+        trim();
+      }
+    }
+    return digest.clone();
+  }
+
+  private void trim () {
+    for (final Iterator<Key> i = entries.keySet().iterator(); entries.size() > capacity;) {
+      i.next();
+      i.remove();
+    }
+  }
+
+  /**
+   * Add the entries of a file written by {@link #store}, if present.
+   */
+  public void load (Path file) throws IOException {
+    final DataInputStream in;
+    try {
+      in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+    }
+    catch (IOException e) {
+      if (!Files.exists(file))
+        return;
+      throw e;
+    }
+    try {
+      if (MAGIC != in.readInt())
+        return;
+      final List<Key> keys = new ArrayList<Key>();
+      final List<Entry> values = new ArrayList<Entry>();
+      for (int count = in.readInt(); count > 0; --count) {
+        keys.add(new Key(in.readUTF(), in.readUTF(), in.readBoolean()));
+        final long size = in.readLong();
+        final long lastModified = in.readLong();
+        final String fileKey = in.readUTF();
+        final byte[] digest = new byte[in.readUnsignedShort()];
+        in.readFully(digest);
+        values.add(new Entry(size, lastModified, fileKey, digest));
+      }
+      synchronized (this) {
+        for (int i = 0; i < keys.size(); ++i) {
+          if (!entries.containsKey(keys.get(i)))
+            entries.put(keys.get(i), values.get(i));
+        }
+        trim();
+      }
+    }
+    catch (EOFException e) {
+      // torn
+    }
+    catch (UTFDataFormatException e) {
+      // torn
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Replace the file durably, see {@link Utils#writeDurably}.
+   */
+  public void store (Path file) throws IOException {
+    final List<Map.Entry<Key, Entry>> snapshot;
+    synchronized (this) {
+      snapshot = new ArrayList<Map.Entry<Key, Entry>>(entries.entrySet());
+    }
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(snapshot.size());
+      for (final Map.Entry<Key, Entry> e : snapshot) {
+        final Key key = e.getKey();
+        final Entry entry = e.getValue();
+        out.writeUTF(key.path);
+        out.writeUTF(key.algorithm);
+        out.writeBoolean(key.tree);
+        out.writeLong(entry.size);
+        out.writeLong(entry.lastModified);
+        out.writeUTF(entry.fileKey);
+        out.writeShort(entry.digest.length);
+        out.write(entry.digest);
+      }
+    }
+    finally {
+      out.close();
+    }
+    Utils.writeDurably(file, bytes.toByteArray());
+  }
+
+  private static final class Key {
+
+    final String path;
+    final String algorithm;
+    final boolean tree;
+
+    Key (String path, String algorithm, boolean tree) {
+      this.path = path;
+      this.algorithm = algorithm;
+      this.tree = tree;
+    }
+
+    @Override
+    public boolean equals (Object o) {
+      if (!(o instanceof Key))
+        return false;
+      final Key other = (Key)o;
+      return path.equals(other.path) && algorithm.equalsIgnoreCase(other.algorithm) && tree == other.tree;
+    }
+
+    @Override
+    public int hashCode () {
+      return path.hashCode() ^ algorithm.toUpperCase().hashCode() ^ (tree ? 1 : 0);
+    }
+
+  } // class Key
+
+  private static final class Entry {
+
+    final long size;
+    final long lastModified;
+    final String fileKey;
+    final byte[] digest;
+
+    Entry (BasicFileAttributes attrs, byte[] digest) {
+      this(attrs.size(), attrs.lastModifiedTime().toMillis(), String.valueOf(attrs.fileKey()), digest);
+    }
+
+    Entry (long size, long lastModified, String fileKey, byte[] digest) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.fileKey = fileKey;
+      this.digest = digest;
+    }
+
+    boolean matches (Entry other) {
+      return size == other.size
+          && lastModified == other.lastModified
+          && fileKey.equals(other.fileKey);
+    }
+
+  } // class Entry
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import com.llamalab.safs.Files;
+import com.llamalab.safs.Path;
+import com.llamalab.safs.StandardOpenOption;
+import com.llamalab.safs.channels.SeekableByteChannel;
+import com.llamalab.safs.channels.SeekableByteChannels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * File content digests, read from memory-mappings or pooled buffers.
+ * <p>
+ * A tree digest is the digest of the concatenated digests of {@link #TREE_CHUNK_SIZE} chunks,
+ * which are hashed in parallel. It differs from the plain digest of the same content.
+ */
+public final class Digests {
+
+  public static final int TREE_CHUNK_SIZE = 4 * 1024 * 1024;
+  private static final int BUFFER_SIZE = 1024 * 1024;
+  private static final long MAP_REGION_SIZE = 64 * 1024 * 1024;
+
+  private Digests () {}
+
+  public static MessageDigest newMessageDigest (String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalArgumentException(algorithm, e);
+    }
+  }
+
+  public static byte[] digest (Path path, String algorithm, boolean tree) throws IOException {
+    final MessageDigest md = newMessageDigest(algorithm);
+    final SeekableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.READ);
+    try {
+      if (tree)
+        return treeDigest(channel, md);
+      update(md, channel, 0, channel.size());
+      return md.digest();
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Update with the range, which must exist.
+   */
+  private static void update (MessageDigest md, SeekableByteChannel channel, long start, long end) throws IOException {
+    if (channel instanceof Mappable) {
+      for (long p = start; p < end;) {
+        final long length = Math.min(end - p, MAP_REGION_SIZE);
+        md.update(((Mappable)channel).map(p, length));
+        p += length;
+      }
+      return;
+    }
+    final BufferPool pool = BufferPool.getInstance();
+    final ByteBuffer buf = pool.acquire(BUFFER_SIZE, false);
+    try {
+      for (long p = start; p < end;) {
+        buf.clear();
+        buf.limit((int)Math.min(buf.capacity(), end - p));
+        SeekableByteChannels.readFully(channel, buf, p);
+        md.update(buf.array(), buf.arrayOffset(), buf.position());
+        p += buf.position();
+      }
+    }
+    finally {
+      pool.release(buf);
+    }
+  }
+
+  private static byte[] treeDigest (final SeekableByteChannel channel, final MessageDigest md) throws IOException {
+    final long size = channel.size();
+    final int chunks = (int)((size + TREE_CHUNK_SIZE - 1) / TREE_CHUNK_SIZE);
+    final byte[][] leaves = new byte[chunks][];
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicBoolean aborted = new AtomicBoolean();
+    final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    try {
+      for (int w = Math.min(chunks, Runtime.getRuntime().availableProcessors()); w > 0; --w) {
+        futures.add(Utils.executor().submit(new Callable<Void>() {
+          @Override
+          public Void call () throws Exception {
+            final MessageDigest leaf = newMessageDigest(md.getAlgorithm());
+            for (int i; !aborted.get() && (i = next.getAndIncrement()) < chunks;) {
+              final long start = (long)i * TREE_CHUNK_SIZE;
+              update(leaf, channel, start, Math.min(start + TREE_CHUNK_SIZE, size));
+              final byte[] digest = leaf.digest();
+              synchronized (leaves) {
+                leaves[i] = digest;
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      Utils.awaitAll(futures, aborted);
+    }
+    finally {
+      aborted.set(true);
+      Utils.awaitQuietly(futures);
+    }
+    synchronized (leaves) {
+      for (final byte[] leaf : leaves)
+        md.update(leaf);
+    }
+    return md.digest();
+  }
+
+}
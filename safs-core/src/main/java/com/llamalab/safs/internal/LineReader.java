@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import com.llamalab.safs.LineStream;
+import com.llamalab.safs.UncheckedIOException;
+import com.llamalab.safs.channels.SeekableByteChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link LineStream} decoding directly from a channel, or from a memory-mapping when it's
+ * {@link Mappable} and at least {@link #MAP_THRESHOLD} bytes. With ASCII compatible charsets,
+ * where line terminators can't be part of a multi-byte sequence, lines are split before decoding,
+ * and pure ASCII lines aren't decoded at all.
+ */
+public final class LineReader implements LineStream, Iterator<String> {
+
+  public static final long MAP_THRESHOLD = 1024 * 1024;
+  private static final long MAP_REGION_SIZE = 64 * 1024 * 1024;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final SeekableByteChannel channel;
+  private final CharsetDecoder decoder;
+  private final boolean asciiCompatible;
+  private final long mapSize;
+  private ByteBuffer bytes;
+  private long bytesOffset;
+  private CharBuffer chars;
+  private char[] line;
+  private boolean eof;
+  private boolean flushed;
+  private boolean skipLF;
+  private String next;
+  private boolean started;
+  private boolean closed;
+
+  public LineReader (SeekableByteChannel channel, Charset charset) throws IOException {
+    this.channel = channel;
+    this.decoder = charset.newDecoder();
+    this.asciiCompatible = isAsciiCompatible(charset);
+    final long size = (channel instanceof Mappable) ? channel.size() : -1;
+    if (size >= MAP_THRESHOLD) {
+      mapSize = size;
+      bytesOffset = Math.min(channel.position(), size);
+      bytes = ((Mappable)channel).map(bytesOffset, Math.min(size - bytesOffset, MAP_REGION_SIZE));
+    }
+    else {
+      mapSize = -1;
+      bytes = BufferPool.getInstance().acquire(BUFFER_SIZE, false);
+      bytes.flip();
+    }
+    if (asciiCompatible)
+      line = new char[128];
+    else {
+      chars = CharBuffer.allocate(BUFFER_SIZE);
+      chars.flip();
+    }
+  }
+
+  public static boolean isAsciiCompatible (Charset charset) {
+    final String name = charset.name();
+    return "UTF-8".equals(name) || "US-ASCII".equals(name) || "ISO-8859-1".equals(name);
+  }
+
+  @Override
+  public void close () throws IOException {
+    if (closed)
+      return;
+    closed = true;
+    try {
+      channel.close();
+    }
+    finally {
+      if (mapSize < 0)
+        BufferPool.getInstance().release(bytes);
+      bytes = null;
+    }
+  }
+
+  @Override
+  public String readLine () throws IOException {
+    if (closed)
+      throw new IOException("Stream closed");
+    return asciiCompatible ? readBytesLine() : readCharsLine();
+  }
+
+  private String readBytesLine () throws IOException {
+    if (skipLF) {
+      skipLF = false;
+      if (bytes.hasRemaining() || fillBytes()) {
+        if (bytes.get(bytes.position()) == '\n')
+          bytes.position(bytes.position() + 1);
+      }
+    }
+    for (int scanned = 0;;) {
+      final int start = bytes.position();
+      final int limit = bytes.limit();
+      for (int i = start + scanned; i < limit; ++i) {
+        final byte b = bytes.get(i);
+        if (b == '\n' || b == '\r') {
+          final String result = decodeLine(start, i);
+          bytes.position(i + 1);
+          skipLF = (b == '\r');
+          return result;
+        }
+      }
+      scanned = limit - start;
+      if (!fillBytes()) {
+        if (!bytes.hasRemaining())
+          return null;
+        final String result = decodeLine(bytes.position(), bytes.limit());
+        bytes.position(bytes.limit());
+        return result;
+      }
+    }
+  }
+
+  private String decodeLine (int start, int end) throws IOException {
+    final int length = end - start;
+    if (line.length < length)
+      line = new char[Math.max(length, 2 * line.length)];
+    for (int i = 0; i < length; ++i) {
+      final byte b = bytes.get(start + i);
+      if (b < 0) {
+        final ByteBuffer slice = bytes.duplicate();
+        slice.limit(end);
+        slice.position(start);
+        return decoder.decode(slice).toString();
+      }
+      line[i] = (char)b;
+    }
+    return new String(line, 0, length);
+  }
+
+  private String readCharsLine () throws IOException {
+    if (skipLF) {
+      skipLF = false;
+      if (chars.hasRemaining() || fillChars()) {
+        if (chars.get(chars.position()) == '\n')
+          chars.position(chars.position() + 1);
+      }
+    }
+    for (int scanned = 0;;) {
+      final int start = chars.position();
+      final int limit = chars.limit();
+      for (int i = start + scanned; i < limit; ++i) {
+        final char c = chars.get(i);
+        if (c == '\n' || c == '\r') {
+          final String result = new String(chars.array(), chars.arrayOffset() + start, i - start);
+          chars.position(i + 1);
+          skipLF = (c == '\r');
+          return result;
+        }
+      }
+      scanned = limit - start;
+      if (!fillChars()) {
+        if (!chars.hasRemaining())
+          return null;
+        final String result = chars.toString();
+        chars.position(chars.limit());
+        return result;
+      }
+    }
+  }
+
+  /**
+   * @return false at end-of-file, remaining bytes are kept.
+   */
+  private boolean fillBytes () throws IOException {
+    if (eof)
+      return false;
+    if (mapSize >= 0) {
+      final long offset = bytesOffset + bytes.position();
+      if (offset + bytes.remaining() >= mapSize) {
+        eof = true;
+        return false;
+      }
+      // remap from the unconsumed bytes, growing for lines longer than a region
+      bytes = ((Mappable)channel).map(offset, Math.min(mapSize - offset, Math.min(Integer.MAX_VALUE, Math.max(MAP_REGION_SIZE, 2L * bytes.remaining()))));
+      bytesOffset = offset;
+      return true;
+    }
+    bytes.compact();
+    try {
+      if (!bytes.hasRemaining()) {
+        final BufferPool pool = BufferPool.getInstance();
+        final ByteBuffer larger = pool.acquire(2 * bytes.capacity(), false);
+        bytes.flip();
+        larger.put(bytes);
+        pool.release(bytes);
+        bytes = larger;
+      }
+      for (;;) {
+        final int n = channel.read(bytes);
+        if (n < 0) {
+          eof = true;
+          return false;
+        }
+        if (n > 0)
+          return true;
+      }
+    }
+    finally {
+      bytes.flip();
+    }
+  }
+
+  /**
+   * @return false at end-of-file, remaining chars are kept.
+   */
+  private boolean fillChars () throws IOException {
+    if (flushed)
+      return false;
+    chars.compact();
+    try {
+      for (;;) {
+        if (!chars.hasRemaining())
+          growChars();
+        final int start = chars.position();
+        final CoderResult result = decoder.decode(bytes, chars, eof);
+        if (result.isError())
+          result.throwException();
+        if (eof && result.isUnderflow()) {
+          while (decoder.flush(chars).isOverflow())
+            growChars();
+          flushed = true;
+          return chars.position() > start;
+        }
+        if (chars.position() > start)
+          return true;
+        if (result.isOverflow())
+          growChars();
+        else
+          fillBytes();
+      }
+    }
+    finally {
+      chars.flip();
+    }
+  }
+
+  private void growChars () {
+    final CharBuffer larger = CharBuffer.allocate(2 * chars.capacity());
+    chars.flip();
+    larger.put(chars);
+    chars = larger;
+  }
+
+  @SuppressWarnings("NullableProblems")
+  @Override
+  public Iterator<String> iterator () {
+    if (started)
+      throw new IllegalStateException();
+    started = true;
+    return this;
+  }
+
+  @Override
+  public boolean hasNext () {
+    if (next != null)
+      return true;
+    if (closed)
+      return false;
+    try {
+      return (next = readLine()) != null;
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public String next () {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    final String result = next;
+    next = null;
+    return result;
+  }
+
+  @Override
+  public void remove () {
+    throw new UnsupportedOperationException();
+  }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.MalformedInputException;
+
+/**
+ * Encodes lines into a pooled buffer, written to the stream when full.
+ * With ASCII compatible charsets, ASCII characters are copied without encoding.
+ */
+public final class LineWriter {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n");
+
+  private final OutputStream out;
+  private final CharsetEncoder encoder;
+  private final boolean asciiCompatible;
+  private final ByteBuffer buf;
+
+  private LineWriter (OutputStream out, Charset charset) {
+    this.out = out;
+    this.encoder = charset.newEncoder();
+    this.asciiCompatible = LineReader.isAsciiCompatible(charset);
+    this.buf = BufferPool.getInstance().acquire(BUFFER_SIZE, false);
+  }
+
+  /**
+   * Each line is followed by the platform line separator. The stream isn't closed.
+   */
+  public static void write (OutputStream out, Iterable<? extends CharSequence> lines, Charset charset) throws IOException {
+    final LineWriter writer = new LineWriter(out, charset);
+    try {
+      for (final CharSequence line : lines) {
+        writer.append(line);
+        writer.append(LINE_SEPARATOR);
+      }
+      writer.finish();
+    }
+    finally {
+      BufferPool.getInstance().release(writer.buf);
+    }
+  }
+
+  private void append (CharSequence cs) throws IOException {
+    final int length = cs.length();
+    int i = 0;
+    if (asciiCompatible) {
+      for (; i < length; ++i) {
+        final char c = cs.charAt(i);
+        if (c >= 0x80)
+          break;
+        if (!buf.hasRemaining())
+          flushBuffer();
+        buf.put((byte)c);
+      }
+      if (i == length)
+        return;
+    }
+    final CharBuffer in = CharBuffer.wrap(cs, i, length);
+    for (;;) {
+      final CoderResult result = encoder.encode(in, buf, false);
+      if (result.isUnderflow())
+        break;
+      if (result.isOverflow())
+        flushBuffer();
+      else
+        result.throwException();
+    }
+    if (in.hasRemaining())
+      throw new MalformedInputException(in.remaining());
+  }
+
+  private void finish () throws IOException {
+    final CharBuffer in = CharBuffer.allocate(0);
+    CoderResult result;
+    while ((result = encoder.encode(in, buf, true)).isOverflow())
+      flushBuffer();
+    if (result.isError())
+      result.throwException();
+    while (encoder.flush(buf).isOverflow())
+      flushBuffer();
+    flushBuffer();
+  }
+
+  private void flushBuffer () throws IOException {
+    out.write(buf.array(), buf.arrayOffset(), buf.position());
+    buf.clear();
+  }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Open addressing hash map with primitive {@code long} keys, for large numbers of entries
+ * without boxing. Values must not be null, and entries can't be removed.
+ */
+public final class LongHashMap<V> {
+
+  private long[] keys;
+  private Object[] values;
+  private int size;
+
+  public LongHashMap () {
+    this(16);
+  }
+
+  public LongHashMap (int capacity) {
+    final int length = Integer.highestOneBit(Math.max(4, capacity) * 2 - 1) << 1;
+    keys = new long[length];
+    values = new Object[length];
+  }
+
+  public int size () {
+    return size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get (long key) {
+    final int mask = keys.length - 1;
+    for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key)
+        return (V)values[i];
+    }
+    return null;
+  }
+
+  /**
+   * @return previous value, or null.
+   */
+  @SuppressWarnings("unchecked")
+  public V put (long key, V value) {
+    if (value == null)
+      throw new NullPointerException();
+    final int mask = keys.length - 1;
+    int i = hash(key) & mask;
+    for (; values[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        final V previous = (V)values[i];
+        values[i] = value;
+        return previous;
+      }
+    }
+    keys[i] = key;
+    values[i] = value;
+    if (++size > keys.length / 2)
+      rehash();
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  public List<V> values () {
+    final List<V> result = new ArrayList<V>(size);
+    for (final Object value : values) {
+      if (value != null)
+        result.add((V)value);
+    }
+    return result;
+  }
+
+  private void rehash () {
+    final long[] oldKeys = keys;
+    final Object[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new Object[oldValues.length * 2];
+    final int mask = keys.length - 1;
+    for (int j = 0; j < oldKeys.length; ++j) {
+      if (oldValues[j] != null) {
+        int i = hash(oldKeys[j]) & mask;
+        while (values[i] != null)
+          i = (i + 1) & mask;
+        keys[i] = oldKeys[j];
+        values[i] = oldValues[j];
+      }
+    }
+  }
+
+  private static int hash (long key) {
+    final int h = (int)(key ^ (key >>> 32)) * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+}
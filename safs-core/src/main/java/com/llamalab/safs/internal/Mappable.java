@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Channel able to memory-map its file.
+ */
+public interface Mappable {
+
+  /**
+   * @return read-only mapping of the region.
+   */
+  public ByteBuffer map (long position, long size) throws IOException;
+
+}
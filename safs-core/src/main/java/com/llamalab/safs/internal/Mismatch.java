@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import com.llamalab.safs.Files;
+import com.llamalab.safs.Path;
+import com.llamalab.safs.StandardOpenOption;
+import com.llamalab.safs.attributes.BasicFileAttributes;
+import com.llamalab.safs.channels.SeekableByteChannel;
+import com.llamalab.safs.channels.SeekableByteChannels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content comparison of two files, through memory-mappings or pooled buffers, eight bytes at a
+ * time. Ranges of at least {@link #PARALLEL_THRESHOLD} are split into segments compared in parallel.
+ */
+public final class Mismatch {
+
+  public static final long PARALLEL_THRESHOLD = 256 * 1024 * 1024;
+  private static final long MIN_SEGMENT_SIZE = 64 * 1024 * 1024;
+  private static final long MAP_REGION_SIZE = 64 * 1024 * 1024;
+  private static final int BUFFER_SIZE = 1024 * 1024;
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  private Mismatch () {}
+
+  /**
+   * @return position of the first mismatch, the smaller size if one is a prefix of the other, or -1 if equal.
+   */
+  public static long mismatch (Path path1, Path path2) throws IOException {
+    final BasicFileAttributes attrs1 = Files.readAttributes(path1, BasicFileAttributes.class);
+    final BasicFileAttributes attrs2 = Files.readAttributes(path2, BasicFileAttributes.class);
+    if (isSameFile(path1, attrs1, path2, attrs2))
+      return -1;
+    final SeekableByteChannel channel1 = Files.newByteChannel(path1, StandardOpenOption.READ);
+    try {
+      final SeekableByteChannel channel2 = Files.newByteChannel(path2, StandardOpenOption.READ);
+      try {
+        final long size1 = channel1.size();
+        final long size2 = channel2.size();
+        final long size = Math.min(size1, size2);
+        final long result = compare(channel1, channel2, 0, size);
+        if (result >= 0)
+          return result;
+        return (size1 == size2) ? -1 : size;
+      }
+      finally {
+        channel2.close();
+      }
+    }
+    finally {
+      channel1.close();
+    }
+  }
+
+  /**
+   * Short-circuits on size and file key, and compares the first and last blocks before the rest.
+   */
+  public static boolean isSameContent (Path path1, Path path2) throws IOException {
+    final BasicFileAttributes attrs1 = Files.readAttributes(path1, BasicFileAttributes.class);
+    final BasicFileAttributes attrs2 = Files.readAttributes(path2, BasicFileAttributes.class);
+    if (attrs1.size() != attrs2.size())
+      return false;
+    if (isSameFile(path1, attrs1, path2, attrs2))
+      return true;
+    final SeekableByteChannel channel1 = Files.newByteChannel(path1, StandardOpenOption.READ);
+    try {
+      final SeekableByteChannel channel2 = Files.newByteChannel(path2, StandardOpenOption.READ);
+      try {
+        final long size = channel1.size();
+        if (size != channel2.size())
+          return false;
+        if (size <= 3 * BLOCK_SIZE)
+          return compare(channel1, channel2, 0, size) < 0;
+        return compare(channel1, channel2, 0, BLOCK_SIZE) < 0
+            && compare(channel1, channel2, size - BLOCK_SIZE, size) < 0
+            && compare(channel1, channel2, BLOCK_SIZE, size - BLOCK_SIZE) < 0;
+      }
+      finally {
+        channel2.close();
+      }
+    }
+    finally {
+      channel1.close();
+    }
+  }
+
+  private static boolean isSameFile (Path path1, BasicFileAttributes attrs1, Path path2, BasicFileAttributes attrs2) throws IOException {
+    final Object key = attrs1.fileKey();
+    if (key != null && key.equals(attrs2.fileKey()))
+      return true;
+    return Files.isSameFile(path1, path2);
+  }
+
+  /**
+   * @return position of the first mismatch in range, or -1.
+   */
+  private static long compare (final SeekableByteChannel channel1, final SeekableByteChannel channel2, long start, long end) throws IOException {
+    final AtomicLong found = new AtomicLong(Long.MAX_VALUE);
+    final AtomicBoolean aborted = new AtomicBoolean();
+    if (end - start < PARALLEL_THRESHOLD) {
+      compareSegment(channel1, channel2, start, end, found, aborted);
+    }
+    else {
+      final int segments = (int)Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), (end - start) / MIN_SEGMENT_SIZE));
+      final long segmentSize = (end - start + segments - 1) / segments;
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>(segments);
+      try {
+        for (long s = start; s < end; s += segmentSize) {
+          final long segmentStart = s;
+          final long segmentEnd = Math.min(s + segmentSize, end);
+          futures.add(Utils.executor().submit(new Callable<Void>() {
+            @Override
+            public Void call () throws Exception {
+              compareSegment(channel1, channel2, segmentStart, segmentEnd, found, aborted);
+              return null;
+            }
+          }));
+        }
+        Utils.awaitAll(futures, aborted);
+      }
+      finally {
+        aborted.set(true);
+        Utils.awaitQuietly(futures);
+      }
+    }
+    final long result = found.get();
+    return (result == Long.MAX_VALUE) ? -1 : result;
+  }
+
+  /**
+   * Lower {@code found} to the first mismatch, stop when beyond it or aborted.
+   */
+  private static void compareSegment (SeekableByteChannel channel1, SeekableByteChannel channel2, long start, long end, AtomicLong found, AtomicBoolean aborted) throws IOException {
+    final Window window1 = new Window(channel1);
+    final Window window2 = new Window(channel2);
+    try {
+      final long region = Math.min(window1.regionSize(), window2.regionSize());
+      for (long p = start; p < end && p < found.get() && !aborted.get();) {
+        final int length = (int)Math.min(end - p, region);
+        final int i = mismatch(window1.get(p, length), window2.get(p, length), length);
+        if (i >= 0) {
+          final long position = p + i;
+          for (long f; position < (f = found.get()) && !found.compareAndSet(f, position);) {
+            // retry
+          }
+          return;
+        }
+        p += length;
+      }
+    }
+    finally {
+      window1.release();
+      window2.release();
+    }
+  }
+
+  private static int mismatch (ByteBuffer buf1, ByteBuffer buf2, int length) {
+    int i = 0;
+    for (final int e = length - 8; i <= e; i += 8) {
+      if (buf1.getLong(i) != buf2.getLong(i))
+        break;
+    }
+    for (; i < length; ++i) {
+      if (buf1.get(i) != buf2.get(i))
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Region of a channel, starting at index zero.
+   */
+  private static final class Window {
+
+    private final SeekableByteChannel channel;
+    private ByteBuffer buffer;
+
+    Window (SeekableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    long regionSize () {
+      return (channel instanceof Mappable) ? MAP_REGION_SIZE : BUFFER_SIZE;
+    }
+
+    ByteBuffer get (long position, int length) throws IOException {
+      if (channel instanceof Mappable)
+        return ((Mappable)channel).map(position, length);
+      if (buffer == null)
+        buffer = BufferPool.getInstance().acquire(BUFFER_SIZE, false);
+      buffer.clear();
+      buffer.limit(length);
+      SeekableByteChannels.readFully(channel, buffer, position);
+      buffer.flip();
+      return buffer;
+    }
+
+    void release () {
+      BufferPool.getInstance().release(buffer);
+      buffer = null;
+    }
+
+  } // class Window
+
+}
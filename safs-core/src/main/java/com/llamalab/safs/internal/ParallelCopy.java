@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import com.llamalab.safs.AtomicMoveNotSupportedException;
+import com.llamalab.safs.CopyOption;
+import com.llamalab.safs.CopyProgress;
+import com.llamalab.safs.FileAlreadyExistsException;
+import com.llamalab.safs.FileSystemException;
+import com.llamalab.safs.Files;
+import com.llamalab.safs.Path;
+import com.llamalab.safs.StandardCopyOption;
+import com.llamalab.safs.StandardOpenOption;
+import com.llamalab.safs.attributes.BasicFileAttributes;
+import com.llamalab.safs.channels.SeekableByteChannel;
+import com.llamalab.safs.channels.SeekableByteChannels;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies a regular file as concurrent segments of at least {@link #MIN_SEGMENT_SIZE}, each with
+ * its own channels and positional reads and writes, into a temporary file next to the target
+ * that is sized up front. When all segments are done, the temporary file is forced and moved to the
+ * target, atomically if supported by the provider, otherwise deleted.
+ * <p>
+ * Progress is reported, and cancellation checked, by the calling thread.
+ */
+public final class ParallelCopy {
+
+  public static final long MIN_SEGMENT_SIZE = 16 * 1024 * 1024;
+  public static final int MAX_SEGMENTS = 8;
+  private static final int BUFFER_SIZE = 1024 * 1024;
+  private static final long PROGRESS_INTERVAL_MILLIS = 100;
+
+  private ParallelCopy () {}
+
+  public static void copy (Path source, Path target, CopyOption... options) throws IOException {
+    boolean replaceExisting = false;
+    boolean copyAttributes = false;
+    CopyProgress progress = null;
+    for (final CopyOption option : options) {
+      if (StandardCopyOption.REPLACE_EXISTING == option)
+        replaceExisting = true;
+      else if (StandardCopyOption.COPY_ATTRIBUTES == option)
+        copyAttributes = true;
+      else if (option instanceof CopyProgress)
+        progress = (CopyProgress)option;
+    }
+    final BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+    if (!attrs.isRegularFile())
+      throw new FileSystemException(source.toString(), null, "Not a regular file");
+    if (!replaceExisting && Files.exists(target))
+      throw new FileAlreadyExistsException(target.toString());
+    final Path parent = target.toAbsolutePath().getParent();
+    final Path temp = Files.createTempFile(parent, "." + target.getFileName(), ".tmp");
+    boolean success = false;
+    try {
+      copy(source, temp, attrs.size(), progress);
+      if (copyAttributes)
+        Files.setLastModifiedTime(temp, attrs.lastModifiedTime());
+      try {
+        if (replaceExisting)
+          Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        else
+          Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        if (replaceExisting)
+          Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        else
+          Files.move(temp, target);
+      }
+      success = true;
+    }
+    finally {
+      if (!success) {
+        try {
+          Files.deleteIfExists(temp);
+        }
+        catch (Throwable t) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  private static void copy (final Path source, final Path target, final long size, CopyProgress progress) throws IOException {
+    final SeekableByteChannel out = Files.newByteChannel(target, StandardOpenOption.WRITE);
+    try {
+      // size up front, so segments never write beyond the end
+      if (size > 0)
+        out.write(ByteBuffer.allocate(1), size - 1);
+      final int segments = (int)Math.max(1, Math.min(Math.min(MAX_SEGMENTS, Runtime.getRuntime().availableProcessors()), size / MIN_SEGMENT_SIZE));
+      final long segmentSize = (size + segments - 1) / segments;
+      final AtomicLong copied = new AtomicLong();
+      final AtomicBoolean aborted = new AtomicBoolean();
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>(segments);
+      for (int i = 0; i < segments; ++i) {
+        final long start = i * segmentSize;
+        final long end = Math.min(start + segmentSize, size);
+        futures.add(Utils.executor().submit(new Callable<Void>() {
+          @Override
+          public Void call () throws Exception {
+            copySegment(source, target, start, end, copied, aborted);
+            return null;
+          }
+        }));
+      }
+      try {
+        if (progress != null)
+          report(futures, size, copied, progress);
+        Utils.awaitAll(futures, aborted);
+      }
+      finally {
+        aborted.set(true);
+        Utils.awaitQuietly(futures);
+      }
+      out.force(true);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static void copySegment (Path source, Path target, long start, long end, AtomicLong copied, AtomicBoolean aborted) throws IOException {
+    final BufferPool pool = BufferPool.getInstance();
+    final ByteBuffer buf = pool.acquire(BUFFER_SIZE, true);
+    try {
+      final SeekableByteChannel in = Files.newByteChannel(source, StandardOpenOption.READ);
+      try {
+        final SeekableByteChannel out = Files.newByteChannel(target, StandardOpenOption.WRITE);
+        try {
+          for (long p = start; p < end;) {
+            if (aborted.get())
+              return;
+            buf.clear();
+            buf.limit((int)Math.min(buf.capacity(), end - p));
+            SeekableByteChannels.readFully(in, buf, p);
+            buf.flip();
+            final int n = buf.remaining();
+            while (buf.hasRemaining())
+              p += out.write(buf, p);
+            copied.addAndGet(n);
+          }
+        }
+        finally {
+          out.close();
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    finally {
+      pool.release(buf);
+    }
+  }
+
+  /**
+   * Report progress until all segments are done, or one failed.
+   */
+  private static void report (List<Future<Void>> futures, long size, AtomicLong copied, CopyProgress progress) throws IOException {
+    long reported = 0;
+    long time = System.nanoTime();
+    for (final Future<Void> future : futures) {
+      for (boolean done = false; !done;) {
+        try {
+          future.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+          done = true;
+        }
+        catch (TimeoutException e) {
+          // report progress
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+        catch (ExecutionException e) {
+          // thrown by awaitAll
+          return;
+        }
+        final long now = System.nanoTime();
+        final long current = copied.get();
+        if (current > reported) {
+          progress.chunkCopied(current, size, current - reported, now - time);
+          reported = current;
+          time = now;
+        }
+        progress.checkCancelled();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import com.llamalab.safs.CopyProgress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stream transfer with a background reader filling buffers while the calling thread writes,
+ * for copying between independent devices. At most {@link #BUFFER_COUNT} buffers of
+ * {@link #BUFFER_SIZE} are in flight. Smaller transfers are done in the calling thread.
+ */
+public final class PipelinedTransfer {
+
+  public static final int BUFFER_SIZE = 256 * 1024;
+  public static final int BUFFER_COUNT = 4;
+
+  private static final Chunk END = new Chunk(null, -1, null);
+
+  private PipelinedTransfer () {}
+
+  /**
+   * @param total expected size, or -1 if unknown.
+   */
+  public static long transfer (final InputStream in, OutputStream out, long total, CopyProgress progress) throws IOException {
+    if (total >= 0 && total <= 2 * BUFFER_SIZE)
+      return Utils.transfer(in, out, total, progress);
+    final BufferPool pool = BufferPool.getInstance();
+    final BlockingQueue<byte[]> free = new ArrayBlockingQueue<byte[]>(BUFFER_COUNT + 1); // never blocks
+    final AtomicBoolean aborted = new AtomicBoolean();
+    final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<Chunk>(BUFFER_COUNT + 1); // never blocks
+    for (int i = 0; i < BUFFER_COUNT; ++i)
+      free.add(pool.acquireArray(BUFFER_SIZE));
+    final Future<?> reader = Utils.executor().submit(new Runnable() {
+      @Override
+      public void run () {
+        try {
+          for (;;) {
+            final byte[] buf = free.take();
+            if (aborted.get())
+              return;
+            int n = 0;
+            for (int b; n < buf.length && (b = in.read(buf, n, buf.length - n)) != -1;)
+              n += b;
+            if (n > 0)
+              filled.add(new Chunk(buf, n, null));
+            if (n < buf.length) {
+              filled.add(END);
+              return;
+            }
+          }
+        }
+        catch (Throwable t) {
+          filled.add(new Chunk(null, -1, t));
+        }
+      }
+    });
+    boolean interrupted = false;
+    try {
+      long written = 0;
+      long chunk = 0;
+      long time = System.nanoTime();
+      for (;;) {
+        final Chunk c;
+        try {
+          c = filled.take();
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+          throw new InterruptedIOException();
+        }
+        if (c.failure != null) {
+          if (c.failure instanceof IOException)
+            throw (IOException)c.failure;
+          if (c.failure instanceof RuntimeException)
+            throw (RuntimeException)c.failure;
+          throw (Error)c.failure;
+        }
+        if (END == c)
+          break;
+        if (progress != null && chunk == 0)
+          progress.checkCancelled();
+        out.write(c.buffer, 0, c.length);
+        written += c.length;
+        free.add(c.buffer);
+        if (progress != null && (chunk += c.length) >= progress.chunkSize()) {
+          final long now = System.nanoTime();
+          progress.chunkCopied(written, total, chunk, now - time);
+          chunk = 0;
+          time = now;
+        }
+      }
+      if (progress != null && chunk > 0)
+        progress.chunkCopied(written, total, chunk, System.nanoTime() - time);
+      return written;
+    }
+    finally {
+      // stop and wait for reader, since the caller will close the stream
+      aborted.set(true);
+      free.add(new byte[0]);
+      for (;;) {
+        try {
+          reader.get();
+          break;
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+        catch (ExecutionException e) {
+          break;
+        }
+      }
+      for (byte[] buf; (buf = free.poll()) != null;)
+        pool.releaseArray(buf);
+      for (Chunk c; (c = filled.poll()) != null;)
+        pool.releaseArray(c.buffer);
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  private static final class Chunk {
+
+    final byte[] buffer;
+    final int length;
+    final Throwable failure;
+
+    Chunk (byte[] buffer, int length, Throwable failure) {
+      this.buffer = buffer;
+      this.length = length;
+      this.failure = failure;
+    }
+
+  } // class Chunk
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import com.llamalab.safs.channels.SeekableByteChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Tracks the end of the last write into a preallocated file, so it can be truncated back when
+ * closed early. {@link #size} reports the written size, so seeking to the end works like without
+ * preallocation. Not for {@link com.llamalab.safs.StandardOpenOption#APPEND}.
+ *
+ * @see com.llamalab.safs.PreallocateOpenOption
+ */
+public final class PreallocatedSeekableByteChannel implements SeekableByteChannel {
+
+  private final SeekableByteChannel channel;
+  private final long allocated;
+  private long end;
+  private boolean truncated;
+
+  /**
+   * @param initialSize size before preallocation.
+   */
+  public PreallocatedSeekableByteChannel (SeekableByteChannel channel, long initialSize, long allocated) {
+    this.channel = channel;
+    this.allocated = allocated;
+    this.end = initialSize;
+  }
+
+  @Override
+  public boolean isOpen () {
+    return channel.isOpen();
+  }
+
+  @Override
+  public void close () throws IOException {
+    if (!channel.isOpen())
+      return;
+    try {
+      if (!truncated && end < allocated)
+        channel.truncate(end);
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  private void written (long position) {
+    if (end < position)
+      end = position;
+  }
+
+  @Override
+  public int read (ByteBuffer dst) throws IOException {
+    final long position = channel.position();
+    if (!truncated && position >= end)
+      return dst.hasRemaining() ? -1 : 0;
+    return channel.read(dst);
+  }
+
+  @Override
+  public int read (ByteBuffer dst, long position) throws IOException {
+    if (!truncated && position >= end)
+      return dst.hasRemaining() ? -1 : 0;
+    return channel.read(dst, position);
+  }
+
+  @Override
+  public long read (ByteBuffer[] dsts) throws IOException {
+    return read(dsts, 0, dsts.length);
+  }
+
+  @Override
+  public long read (ByteBuffer[] dsts, int offset, int length) throws IOException {
+    if (!truncated && channel.position() >= end)
+      return -1;
+    return channel.read(dsts, offset, length);
+  }
+
+  @Override
+  public int write (ByteBuffer src) throws IOException {
+    final int n = channel.write(src);
+    written(channel.position());
+    return n;
+  }
+
+  @Override
+  public int write (ByteBuffer src, long position) throws IOException {
+    final int n = channel.write(src, position);
+    written(position + n);
+    return n;
+  }
+
+  @Override
+  public long write (ByteBuffer[] srcs) throws IOException {
+    return write(srcs, 0, srcs.length);
+  }
+
+  @Override
+  public long write (ByteBuffer[] srcs, int offset, int length) throws IOException {
+    final long n = channel.write(srcs, offset, length);
+    written(channel.position());
+    return n;
+  }
+
+  @Override
+  public long position () throws IOException {
+    return channel.position();
+  }
+
+  @Override
+  public SeekableByteChannel position (long newPosition) throws IOException {
+    channel.position(newPosition);
+    return this;
+  }
+
+  @Override
+  public long size () throws IOException {
+    return truncated ? channel.size() : Math.min(end, channel.size());
+  }
+
+  @Override
+  public SeekableByteChannel truncate (long size) throws IOException {
+    truncated = true;
+    channel.truncate(size);
+    return this;
+  }
+
+  @Override
+  public void force (boolean metaData) throws IOException {
+    channel.force(metaData);
+  }
+
+}
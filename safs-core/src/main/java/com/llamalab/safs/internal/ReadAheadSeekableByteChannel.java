@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import com.llamalab.safs.channels.SeekableByteChannel;
+import com.llamalab.safs.channels.SeekableByteChannels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reads ahead into a window that doubles, from {@link #MIN_WINDOW} up to {@link #MAX_WINDOW},
+ * for every sequential read and is reset on seek. Reads at least the window size bypass it.
+ * With prefetch, the next window is read by a background thread while the current is consumed.
+ * Writes go through and drop the window.
+ */
+public final class ReadAheadSeekableByteChannel implements SeekableByteChannel {
+
+  public static final int MIN_WINDOW = 16 * 1024;
+  public static final int MAX_WINDOW = 1024 * 1024;
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  private final SeekableByteChannel channel;
+  private final boolean append;
+  private final boolean prefetch;
+  private ByteBuffer window = EMPTY;
+  private long windowStart;
+  private int windowSize = MIN_WINDOW;
+  private ByteBuffer spare;
+  private Future<ByteBuffer> pending;
+  private ByteBuffer pendingBuffer;
+  private long pendingStart;
+  private long position;
+  private long next;
+  private boolean closed;
+
+  public ReadAheadSeekableByteChannel (SeekableByteChannel channel, boolean append, boolean prefetch) {
+    this.channel = channel;
+    this.append = append;
+    this.prefetch = prefetch;
+  }
+
+  @Override
+  public boolean isOpen () {
+    return !closed;
+  }
+
+  @Override
+  public void close () throws IOException {
+    if (closed)
+      return;
+    closed = true;
+    try {
+      recycle(awaitPending());
+    }
+    finally {
+      final BufferPool pool = BufferPool.getInstance();
+      pool.release(window);
+      pool.release(spare);
+      window = EMPTY;
+      spare = null;
+      channel.close();
+    }
+  }
+
+  private void checkOpen () throws ClosedChannelException {
+    if (closed)
+      throw new ClosedChannelException();
+  }
+
+  @Override
+  public int read (ByteBuffer dst) throws IOException {
+    final int n = read(dst, position);
+    if (n > 0)
+      position += n;
+    return n;
+  }
+
+  @Override
+  public int read (ByteBuffer dst, long position) throws IOException {
+    if (position < 0)
+      throw new IllegalArgumentException();
+    checkOpen();
+    final int start = dst.position();
+    while (dst.hasRemaining()) {
+      final long offset = position - windowStart;
+      if (offset >= 0 && offset < window.limit()) {
+        final int n = Math.min(window.limit() - (int)offset, dst.remaining());
+        final ByteBuffer src = window.duplicate();
+        src.limit((int)offset + n).position((int)offset);
+        dst.put(src);
+        position += n;
+        continue;
+      }
+      if (position == next || (window.limit() != 0 && position == windowStart + window.limit())) {
+        if (windowSize < MAX_WINDOW)
+          windowSize <<= 1;
+      }
+      else
+        windowSize = MIN_WINDOW;
+      if (dst.remaining() >= windowSize) {
+        final int n = channel.read(dst, position);
+        if (n > 0)
+          position += n;
+        break;
+      }
+      if (!fill(position))
+        break; // end-of-file
+    }
+    next = position;
+    final int n = dst.position() - start;
+    return (n == 0 && dst.hasRemaining()) ? -1 : n;
+  }
+
+  private boolean fill (long position) throws IOException {
+    ByteBuffer buf = null;
+    if (pending != null) {
+      final long start = pendingStart;
+      final ByteBuffer prefetched = awaitPending();
+      if (prefetched != null && start == position && prefetched.limit() > 0)
+        buf = prefetched;
+      else
+        recycle(prefetched);
+    }
+    if (buf == null) {
+      buf = allocate(windowSize);
+      SeekableByteChannels.readUpTo(channel, buf, position);
+      buf.flip();
+    }
+    recycle(window);
+    window = buf;
+    windowStart = position;
+    if (window.limit() == 0)
+      return false;
+    if (prefetch && window.limit() == window.capacity())
+      startPrefetch(windowStart + window.limit(), Math.min(windowSize << 1, MAX_WINDOW));
+    return true;
+  }
+
+  private ByteBuffer allocate (int size) {
+    final ByteBuffer buf = spare;
+    spare = null;
+    if (buf != null && buf.capacity() == size) {
+      buf.clear();
+      return buf;
+    }
+    final BufferPool pool = BufferPool.getInstance();
+    pool.release(buf);
+    return pool.acquire(size, false);
+  }
+
+  /**
+   * Keeps {@code buf} as the spare, releasing the previous spare.
+   */
+  private void recycle (ByteBuffer buf) {
+    if (buf == null || buf.capacity() == 0)
+      return;
+    BufferPool.getInstance().release(spare);
+    spare = buf;
+  }
+
+  private void startPrefetch (final long position, int size) {
+    final ByteBuffer buf = allocate(size);
+    pendingBuffer = buf;
+    pendingStart = position;
+    pending = Utils.executor().submit(new Callable<ByteBuffer>() {
+      @Override
+      public ByteBuffer call () throws Exception {
+        SeekableByteChannels.readUpTo(channel, buf, position);
+        buf.flip();
+        return buf;
+      }
+    });
+  }
+
+  /**
+   * Never interrupts the prefetch, since that would close the channel.
+   * @return prefetched buffer, or null if failed, then released.
+   */
+  private ByteBuffer awaitPending () throws IOException {
+    final Future<ByteBuffer> f = pending;
+    if (f == null)
+      return null;
+    final ByteBuffer buf = pendingBuffer;
+    pending = null;
+    pendingBuffer = null;
+    boolean interrupted = false;
+    try {
+      for (;;) {
+        try {
+          return f.get();
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    catch (ExecutionException e) {
+      BufferPool.getInstance().release(buf);
+      return null; // retried in the foreground
+    }
+    finally {
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  private void invalidate () throws IOException {
+    recycle(awaitPending());
+    recycle(window);
+    window = EMPTY;
+    next = -1;
+  }
+
+  @Override
+  public long read (ByteBuffer[] dsts) throws IOException {
+    return read(dsts, 0, dsts.length);
+  }
+
+  @Override
+  public long read (ByteBuffer[] dsts, int offset, int length) throws IOException {
+    if ((offset | length) < 0 || offset > dsts.length - length)
+      throw new IndexOutOfBoundsException();
+    long total = 0;
+    for (int i = offset, e = offset + length; i < e; ++i) {
+      if (!dsts[i].hasRemaining())
+        continue;
+      final int n = read(dsts[i]);
+      if (n < 0)
+        return (total == 0) ? -1 : total;
+      total += n;
+      if (dsts[i].hasRemaining())
+        break;
+    }
+    return total;
+  }
+
+  @Override
+  public int write (ByteBuffer src) throws IOException {
+    checkOpen();
+    if (append)
+      position = channel.size();
+    final int n = write(src, position);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int write (ByteBuffer src, long position) throws IOException {
+    checkOpen();
+    invalidate();
+    return channel.write(src, position);
+  }
+
+  @Override
+  public long write (ByteBuffer[] srcs) throws IOException {
+    return write(srcs, 0, srcs.length);
+  }
+
+  @Override
+  public long write (ByteBuffer[] srcs, int offset, int length) throws IOException {
+    if ((offset | length) < 0 || offset > srcs.length - length)
+      throw new IndexOutOfBoundsException();
+    checkOpen();
+    invalidate();
+    if (append)
+      position = channel.size();
+    channel.position(position);
+    final long n = channel.write(srcs, offset, length);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public long position () throws IOException {
+    checkOpen();
+    return position;
+  }
+
+  @Override
+  public SeekableByteChannel position (long newPosition) throws IOException {
+    if (newPosition < 0)
+      throw new IllegalArgumentException();
+    checkOpen();
+    position = newPosition;
+    return this;
+  }
+
+  @Override
+  public void force (boolean metaData) throws IOException {
+    checkOpen();
+    channel.force(metaData);
+  }
+
+  @Override
+  public long size () throws IOException {
+    return channel.size();
+  }
+
+  @Override
+  public SeekableByteChannel truncate (long size) throws IOException {
+    checkOpen();
+    invalidate();
+    channel.truncate(size);
+    if (position > size)
+      position = size;
+    return this;
+  }
+
+}
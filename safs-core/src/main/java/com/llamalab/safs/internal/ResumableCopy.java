@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs.internal;
+
+import com.llamalab.safs.AtomicMoveNotSupportedException;
+import com.llamalab.safs.CopyOption;
+import com.llamalab.safs.CopyProgress;
+import com.llamalab.safs.ExtendedCopyOption;
+import com.llamalab.safs.FileAlreadyExistsException;
+import com.llamalab.safs.FileSystemException;
+import com.llamalab.safs.Files;
+import com.llamalab.safs.Path;
+import com.llamalab.safs.StandardCopyOption;
+import com.llamalab.safs.StandardOpenOption;
+import com.llamalab.safs.attributes.BasicFileAttributes;
+import com.llamalab.safs.channels.SeekableByteChannel;
+import com.llamalab.safs.channels.SeekableByteChannels;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Copies a regular file in chunks of {@link #CHUNK_SIZE}, forcing the target and replacing a
+ * checkpoint file after each chunk, see {@link Utils#writeDurably}. The checkpoint records source
+ * path, file key, size and last modified time, so a copy is only resumed if the source is
+ * unchanged, and is deleted when done. A cancelled {@link CopyProgress} leaves the partial target
+ * and checkpoint for resuming.
+ */
+public final class ResumableCopy {
+
+  public static final int CHUNK_SIZE = 8 * 1024 * 1024;
+  private static final int BUFFER_SIZE = 1024 * 1024;
+  private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+  private ResumableCopy () {}
+
+  public static Path checkpointOf (Path target) {
+    return target.resolveSibling(target.getFileName().toString() + CHECKPOINT_SUFFIX);
+  }
+
+  public static void copy (Path source, Path target, CopyOption... options) throws IOException {
+    boolean replaceExisting = false;
+    boolean copyAttributes = false;
+    boolean verified = false;
+    CopyProgress progress = null;
+    for (final CopyOption option : options) {
+      if (StandardCopyOption.REPLACE_EXISTING == option)
+        replaceExisting = true;
+      else if (StandardCopyOption.COPY_ATTRIBUTES == option)
+        copyAttributes = true;
+      else if (ExtendedCopyOption.RESUMABLE_VERIFIED == option)
+        verified = true;
+      else if (option instanceof CopyProgress)
+        progress = (CopyProgress)option;
+    }
+    final BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+    if (!attrs.isRegularFile())
+      throw new FileSystemException(source.toString(), null, "Not a regular file");
+    final Path checkpointFile = checkpointOf(target);
+    final Checkpoint expected = new Checkpoint(source, attrs);
+    Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+    final boolean targetExists = Files.exists(target);
+    if (checkpoint == null || !checkpoint.matches(expected) || !targetExists) {
+      // not our partial target
+      if (targetExists && !replaceExisting)
+        throw new FileAlreadyExistsException(target.toString());
+      checkpoint = expected;
+    }
+    final SeekableByteChannel in = Files.newByteChannel(source, StandardOpenOption.READ);
+    try {
+      final SeekableByteChannel out = Files.newByteChannel(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+      try {
+        copy(in, out, checkpoint, checkpointFile, verified, progress);
+      }
+      finally {
+        out.close();
+      }
+    }
+    finally {
+      in.close();
+    }
+    Files.deleteIfExists(checkpointFile);
+    if (copyAttributes)
+      Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+  }
+
+  /**
+   * Renames if possible, i.e. on the same file store, otherwise copies resumably and then deletes
+   * {@code source}.
+   */
+  public static void move (Path source, Path target, CopyOption... options) throws IOException {
+    if (Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING) || Files.notExists(target)) {
+      try {
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        // left by an earlier attempt
+        Files.deleteIfExists(checkpointOf(target));
+        return;
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        // another file store
+      }
+    }
+    copy(source, target, options);
+    Files.delete(source);
+  }
+
+  private static void copy (SeekableByteChannel in, SeekableByteChannel out, Checkpoint checkpoint, Path checkpointFile, boolean verified, CopyProgress progress) throws IOException {
+    final BufferPool pool = BufferPool.getInstance();
+    final ByteBuffer buf = pool.acquire(BUFFER_SIZE, false);
+    try {
+      final long size = checkpoint.size;
+      long position = Math.min(checkpoint.committed, out.size());
+      position -= position % CHUNK_SIZE;
+      if (!verified)
+        checkpoint.checksums.clear();
+      // verify copied prefix
+      if (verified && !checkpoint.checksums.isEmpty()) {
+        final int chunks = (int)(position / CHUNK_SIZE);
+        int chunk = 0;
+        for (; chunk < chunks && chunk < checkpoint.checksums.size(); ++chunk) {
+          if (checksum(out, buf, (long)chunk * CHUNK_SIZE, CHUNK_SIZE) != checkpoint.checksums.get(chunk))
+            break;
+        }
+        position = (long)chunk * CHUNK_SIZE;
+      }
+      else if (verified)
+        position = 0;
+      checkpoint.committed = position;
+      while (checkpoint.checksums.size() > position / CHUNK_SIZE)
+        checkpoint.checksums.remove(checkpoint.checksums.size() - 1);
+      if (position == 0)
+        out.truncate(0);
+      // copy
+      while (position < size) {
+        if (progress != null)
+          progress.checkCancelled();
+        final long time = System.nanoTime();
+        final long end = Math.min(position + CHUNK_SIZE, size);
+        final CRC32 crc = new CRC32();
+        for (long p = position; p < end;) {
+          buf.clear();
+          buf.limit((int)Math.min(buf.capacity(), end - p));
+          SeekableByteChannels.readFully(in, buf, p);
+          buf.flip();
+          crc.update(buf.array(), buf.arrayOffset(), buf.limit());
+          while (buf.hasRemaining())
+            p += out.write(buf, p);
+        }
+        out.force(false);
+        if (verified)
+          checkpoint.checksums.add(crc.getValue());
+        checkpoint.committed = end;
+        checkpoint.write(checkpointFile);
+        if (progress != null)
+          progress.chunkCopied(end, size, end - position, System.nanoTime() - time);
+        position = end;
+      }
+      if (out.size() > size)
+        out.truncate(size);
+      out.force(true);
+    }
+    finally {
+      pool.release(buf);
+    }
+  }
+
+  private static long checksum (SeekableByteChannel channel, ByteBuffer buf, long position, int length) throws IOException {
+    final CRC32 crc = new CRC32();
+    for (long p = position, end = position + length; p < end;) {
+      buf.clear();
+      buf.limit((int)Math.min(buf.capacity(), end - p));
+      final int n = SeekableByteChannels.readUpTo(channel, buf, p);
+      if (n == 0)
+        return -1;
+      crc.update(buf.array(), buf.arrayOffset(), n);
+      p += n;
+    }
+    return crc.getValue();
+  }
+
+  private static final class Checkpoint {
+
+    final String source;
+    final String fileKey;
+    final long size;
+    final long lastModified;
+    final List<Long> checksums = new ArrayList<Long>();
+    long committed;
+
+    Checkpoint (Path source, BasicFileAttributes attrs) {
+      this(source.toAbsolutePath().toString(), String.valueOf(attrs.fileKey()), attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    Checkpoint (String source, String fileKey, long size, long lastModified) {
+      this.source = source;
+      this.fileKey = fileKey;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+    boolean matches (Checkpoint other) {
+      return source.equals(other.source)
+          && fileKey.equals(other.fileKey)
+          && size == other.size
+          && lastModified == other.lastModified;
+    }
+
+    /**
+     * @return null if missing or invalid.
+     */
+    static Checkpoint read (Path file) throws IOException {
+      final Properties props = new Properties();
+      try {
+        final InputStream in = Files.newInputStream(file);
+        try {
+          props.load(in);
+        }
+        finally {
+          in.close();
+        }
+      }
+      catch (IOException e) {
+        if (!Files.exists(file))
+          return null;
+        throw e;
+      }
+      try {
+        if (CHUNK_SIZE != Integer.parseInt(props.getProperty("chunkSize")))
+          return null;
+        final Checkpoint checkpoint = new Checkpoint(
+            props.getProperty("source"),
+            props.getProperty("fileKey"),
+            Long.parseLong(props.getProperty("size")),
+            Long.parseLong(props.getProperty("lastModified")));
+        if (checkpoint.source == null || checkpoint.fileKey == null)
+          return null;
+        checkpoint.committed = Long.parseLong(props.getProperty("committed"));
+        final String checksums = props.getProperty("checksums", "");
+        if (checksums.length() != 0) {
+          for (final String checksum : checksums.split(","))
+            checkpoint.checksums.add(Long.parseLong(checksum, 16));
+        }
+        return checkpoint;
+      }
+      catch (RuntimeException e) {
+        // torn or foreign
+        return null;
+      }
+    }
+
+    void write (Path file) throws IOException {
+      final Properties props = new Properties();
+      props.setProperty("source", source);
+      props.setProperty("fileKey", fileKey);
+      props.setProperty("size", Long.toString(size));
+      props.setProperty("lastModified", Long.toString(lastModified));
+      props.setProperty("chunkSize", Integer.toString(CHUNK_SIZE));
+      props.setProperty("committed", Long.toString(committed));
+      final StringBuilder sb = new StringBuilder();
+      for (final Long checksum : checksums) {
+        if (sb.length() != 0)
+          sb.append(',');
+        sb.append(Long.toHexString(checksum));
+      }
+      props.setProperty("checksums", sb.toString());
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      props.store(out, null);
+      Utils.writeDurably(file, out.toByteArray());
+    }
+
+  } // class Checkpoint
+
+}
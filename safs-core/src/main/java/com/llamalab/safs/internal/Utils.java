@@ -16,7 +16,9 @@
 
 package com.llamalab.safs.internal;
 
+import com.llamalab.safs.AtomicMoveNotSupportedException;
 import com.llamalab.safs.CopyOption;
+import com.llamalab.safs.CopyProgress;
 import com.llamalab.safs.DirectoryStream;
 import com.llamalab.safs.FileVisitOption;
 import com.llamalab.safs.FileVisitResult;
@@ -26,14 +28,19 @@ import com.llamalab.safs.LinkOption;
 import com.llamalab.safs.OpenOption;
 import com.llamalab.safs.Path;
 import com.llamalab.safs.SimpleFileVisitor;
+import com.llamalab.safs.StandardCopyOption;
+import com.llamalab.safs.StandardOpenOption;
 import com.llamalab.safs.attributes.BasicFileAttributes;
 import com.llamalab.safs.attributes.FileTime;
+import com.llamalab.safs.channels.SeekableByteChannel;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
@@ -47,6 +54,14 @@ import java.util.List;
 import java.util.Locale;
 import java.util.NoSuchElementException;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -55,6 +70,9 @@ import java.util.regex.PatternSyntaxException;
 public final class Utils {
 
   private static final int BUFFER_SIZE = 8192;
+  private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+  private static ExecutorService executor;
 
   public static final Charset UTF_8 = Charset.forName("utf-8");
   public static final Charset US_ASCII = Charset.forName("US-ASCII");
@@ -244,11 +262,107 @@ public final class Utils {
   */
 
 
+  /**
+   * Shared pool of daemon threads for background I/O.
+   */
+  public static synchronized ExecutorService executor () {
+    if (executor == null) {
+      executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread (Runnable r) {
+          final Thread thread = new Thread(r, "safs-io");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * Waits for all futures, even after a failure, so no task is left running when returning.
+   * On the first failure, or interrupt, {@code abort} is set for the remaining tasks to stop early,
+   * and the failure is thrown when all are done.
+   */
+  public static void awaitAll (List<? extends Future<?>> futures, AtomicBoolean abort) throws IOException {
+    Throwable failure = null;
+    boolean interrupted = false;
+    for (final Future<?> future : futures) {
+      for (;;) {
+        try {
+          future.get();
+          break;
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+          abort.set(true);
+        }
+        catch (ExecutionException e) {
+          if (failure == null)
+            failure = e.getCause();
+          abort.set(true);
+          break;
+        }
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+    if (failure instanceof IOException)
+      throw (IOException)failure;
+    if (failure instanceof RuntimeException)
+      throw (RuntimeException)failure;
+    if (failure instanceof Error)
+      throw (Error)failure;
+    if (failure != null)
+      throw new IOException(failure);
+    if (interrupted)
+      throw new InterruptedIOException();
+  }
+
+  /**
+   * Waits for all futures, ignoring failures, when already failing.
+   */
+  public static void awaitQuietly (List<? extends Future<?>> futures) {
+    boolean interrupted = false;
+    for (final Future<?> future : futures) {
+      for (;;) {
+        try {
+          future.get();
+          break;
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+        catch (ExecutionException e) {
+          break;
+        }
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  public static <T> T findOption (Iterable<?> options, Class<T> type) {
+    for (final Object option : options) {
+      if (type.isInstance(option))
+        return type.cast(option);
+    }
+    return null;
+  }
+
   public static long transfer (ReadableByteChannel in, WritableByteChannel out) throws IOException {
     if (in instanceof FileChannel)
       return transfer((FileChannel)in, out);
-    else
-      return transfer(in, out, ByteBuffer.allocate(BUFFER_SIZE));
+    else {
+      final BufferPool pool = BufferPool.getInstance();
+      final ByteBuffer buf = pool.acquire(TRANSFER_BUFFER_SIZE, true);
+      try {
+        return transfer(in, out, buf);
+      }
+      finally {
+        pool.release(buf);
+      }
+    }
   }
 
   public static long transfer (ReadableByteChannel in, WritableByteChannel out, ByteBuffer buf) throws IOException {
@@ -263,19 +377,89 @@ public final class Utils {
   }
 
   public static long transfer (FileChannel in, WritableByteChannel out) throws IOException {
-    long remaining = in.size();
-    long written = 0;
-    long b;
-    while (remaining > 0) {
-      b = in.transferTo(written, remaining, out);
-      remaining -= b;
-      written   += b;
+    return transfer(in, out, (CopyProgress)null);
+  }
+
+  /**
+   * Transfer from the current position of {@code in} to the size when started, or end-of-file
+   * if it shrinks, and update the position.
+   */
+  public static long transfer (FileChannel in, WritableByteChannel out, CopyProgress progress) throws IOException {
+    final long start = in.position();
+    long size = in.size();
+    long position = start;
+    while (position < size) {
+      if (progress != null)
+        progress.checkCancelled();
+      final long count = (progress != null) ? Math.min(progress.chunkSize(), size - position) : size - position;
+      final long time = System.nanoTime();
+      long b = in.transferTo(position, count, out);
+      if (b <= 0) {
+        // shrunk?
+        size = Math.min(size, in.size());
+        if (position >= size)
+          break;
+        // no progress for some other reason, copy through a buffer instead of spinning
+        if ((b = transfer(in, position, Math.min(count, size - position), out)) <= 0)
+          break;
+      }
+      position += b;
+      if (progress != null)
+        progress.chunkCopied(position - start, size - start, b, System.nanoTime() - time);
+    }
+    in.position(position);
+    return position - start;
+  }
+
+  private static int transfer (FileChannel in, long position, long count, WritableByteChannel out) throws IOException {
+    final BufferPool pool = BufferPool.getInstance();
+    final ByteBuffer buf = pool.acquire((int)Math.min(count, TRANSFER_BUFFER_SIZE), true);
+    try {
+      final int b = in.read(buf, position);
+      if (b > 0) {
+        buf.flip();
+        while (buf.hasRemaining())
+          out.write(buf);
+      }
+      return b;
+    }
+    finally {
+      pool.release(buf);
     }
-    return written;
   }
 
   public static long transfer (InputStream in, OutputStream out) throws IOException {
-    return transfer(in, out, new byte[BUFFER_SIZE]);
+    return transfer(in, out, -1, null);
+  }
+
+  /**
+   * @param total expected size, or -1 if unknown, only for progress.
+   */
+  public static long transfer (InputStream in, OutputStream out, long total, CopyProgress progress) throws IOException {
+    final BufferPool pool = BufferPool.getInstance();
+    final byte[] buf = pool.acquireArray((progress != null) ? TRANSFER_BUFFER_SIZE : BUFFER_SIZE);
+    try {
+      if (progress == null)
+        return transfer(in, out, buf);
+      long written = 0;
+      for (int b = 0; b != -1;) {
+        progress.checkCancelled();
+        final int chunkSize = progress.chunkSize();
+        final long time = System.nanoTime();
+        long chunk = 0;
+        while (chunk < chunkSize && (b = in.read(buf)) != -1) {
+          out.write(buf, 0, b);
+          chunk += b;
+        }
+        written += chunk;
+        if (chunk > 0)
+          progress.chunkCopied(written, total, chunk, System.nanoTime() - time);
+      }
+      return written;
+    }
+    finally {
+      pool.releaseArray(buf);
+    }
   }
 
   public static long transfer (InputStream in, OutputStream out, byte[] buf) throws IOException {
@@ -288,21 +472,104 @@ public final class Utils {
     return written;
   }
 
+  /**
+   * Reads into an array of {@code capacity}, then into pooled chunks if the stream is longer,
+   * so the result is only copied once.
+   */
   public static byte[] readAllBytes (InputStream in, int capacity) throws IOException {
-    byte[] data = new byte[capacity];
+    final byte[] data = new byte[capacity];
     int size = 0;
-    for (int b;;) {
-      while ((b = in.read(data, size, capacity - size)) > 0)
-        size += b;
-      if (b < 0 || (b = in.read()) < 0)
-        break;
-      if (capacity == Integer.MAX_VALUE)
-        throw new OutOfMemoryError("Array size exceeded");
-      capacity = (int)Math.min(Math.max(capacity * 2L, BUFFER_SIZE), Integer.MAX_VALUE);
-      data = Arrays.copyOf(data, capacity);
-      data[size++] = (byte)b;
-    }
-    return (size == data.length) ? data : Arrays.copyOf(data, size);
+    for (int b; size < capacity;) {
+      if ((b = in.read(data, size, capacity - size)) < 0)
+        return Arrays.copyOf(data, size);
+      size += b;
+    }
+    final int first = in.read();
+    if (first < 0)
+      return data;
+    final BufferPool pool = BufferPool.getInstance();
+    final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    try {
+      ByteBuffer chunk = pool.acquire(TRANSFER_BUFFER_SIZE, false);
+      chunks.add(chunk);
+      chunk.put((byte)first);
+      long total = size + 1;
+      for (int b;;) {
+        if (!chunk.hasRemaining())
+          chunks.add(chunk = pool.acquire(TRANSFER_BUFFER_SIZE, false));
+        if ((b = in.read(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining())) < 0)
+          break;
+        chunk.position(chunk.position() + b);
+        if ((total += b) > Integer.MAX_VALUE)
+          throw new OutOfMemoryError("Array size exceeded");
+      }
+      final byte[] result = Arrays.copyOf(data, (int)total);
+      for (final ByteBuffer c : chunks) {
+        System.arraycopy(c.array(), c.arrayOffset(), result, size, c.position());
+        size += c.position();
+      }
+      return result;
+    }
+    finally {
+      for (final ByteBuffer c : chunks)
+        pool.release(c);
+    }
+  }
+
+  /**
+   * Reads the size reported by the channel, with a single read if possible. If the size is
+   * unknown, i.e. zero for pipes, reads until end-of-file.
+   */
+  public static byte[] readAllBytes (SeekableByteChannel channel) throws IOException {
+    final long size = channel.size();
+    if (size > Integer.MAX_VALUE)
+      throw new OutOfMemoryError("Array size exceeded");
+    if (size == 0)
+      return readAllBytes(Channels.newInputStream(channel), BUFFER_SIZE);
+    final byte[] data = new byte[(int)size];
+    final ByteBuffer buf = ByteBuffer.wrap(data);
+    while (buf.hasRemaining()) {
+      if (channel.read(buf) < 0)
+        return Arrays.copyOf(data, buf.position());
+    }
+    return data;
+  }
+
+  /**
+   * Writes content to a forced temporary sibling that is then moved over the file, atomically if
+   * supported, so a crash leaves either the old or the new content.
+   */
+  public static void writeDurably (Path file, byte[] content) throws IOException {
+    final Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "." + file.getFileName(), ".tmp");
+    boolean success = false;
+    try {
+      final SeekableByteChannel out = Files.newByteChannel(temp, StandardOpenOption.WRITE);
+      try {
+        for (final ByteBuffer buf = ByteBuffer.wrap(content); buf.hasRemaining();)
+          out.write(buf);
+        out.force(true);
+      }
+      finally {
+        out.close();
+      }
+      try {
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+      success = true;
+    }
+    finally {
+      if (!success) {
+        try {
+          Files.deleteIfExists(temp);
+        }
+        catch (Throwable t) {
+          // ignore
+        }
+      }
+    }
   }
 
 
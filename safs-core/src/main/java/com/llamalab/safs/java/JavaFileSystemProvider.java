@@ -19,8 +19,10 @@ package com.llamalab.safs.java;
 import com.llamalab.safs.AccessDeniedException;
 import com.llamalab.safs.AtomicMoveNotSupportedException;
 import com.llamalab.safs.CopyOption;
+import com.llamalab.safs.CopyProgress;
 import com.llamalab.safs.DirectoryNotEmptyException;
 import com.llamalab.safs.DirectoryStream;
+import com.llamalab.safs.ExtendedOpenOption;
 import com.llamalab.safs.FileAlreadyExistsException;
 import com.llamalab.safs.FileStore;
 import com.llamalab.safs.FileSystemException;
@@ -54,6 +56,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.util.Set;
 
@@ -100,6 +104,7 @@ public abstract class JavaFileSystemProvider extends AbstractUnixFileSystemProvi
   @Override
   public void delete (Path path) throws IOException {
     checkPath(path);
+    invalidateCache(path);
     delete(path.toFile(), false);
   }
 
@@ -107,6 +112,7 @@ public abstract class JavaFileSystemProvider extends AbstractUnixFileSystemProvi
   public void copy (Path source, Path target, CopyOption... options) throws IOException {
     checkPath(source);
     checkPath(target);
+    invalidateCache(target);
     transfer(source, target, false, new SearchSet<CopyOption>(options));
   }
 
@@ -114,6 +120,8 @@ public abstract class JavaFileSystemProvider extends AbstractUnixFileSystemProvi
   public void move (Path source, Path target, CopyOption... options) throws IOException {
     checkPath(source);
     checkPath(target);
+    invalidateCache(source);
+    invalidateCache(target);
     transfer(source, target, true, new SearchSet<CopyOption>(options));
   }
 
@@ -145,7 +153,7 @@ public abstract class JavaFileSystemProvider extends AbstractUnixFileSystemProvi
       createDirectory(target);
     }
     else
-      copyFile(sourceFile, targetFile);
+      copyFile(sourceFile, targetFile, Utils.findOption(options, CopyProgress.class));
     try {
       if (options.contains(StandardCopyOption.COPY_ATTRIBUTES))
         setLastModifiedTime(targetFile, sourceAttrs.lastModifiedTime());
@@ -167,7 +175,8 @@ public abstract class JavaFileSystemProvider extends AbstractUnixFileSystemProvi
   @Override
   public InputStream newInputStream (Path path, OpenOption... options) throws IOException {
     checkPath(path);
-    return newInputStream(path.toFile(), (options.length == 0) ? DEFAULT_NEW_INPUT_STREAM_OPTIONS : new SearchSet<OpenOption>(options));
+    final Set<? extends OpenOption> set = (options.length == 0) ? DEFAULT_NEW_INPUT_STREAM_OPTIONS : new SearchSet<OpenOption>(options);
+    return wrapInputStream(set, newInputStream(path.toFile(), set));
   }
 
   // TODO: LinkOption.NOFOLLOW_LINKS
@@ -185,7 +194,11 @@ public abstract class JavaFileSystemProvider extends AbstractUnixFileSystemProvi
   @Override
   public OutputStream newOutputStream (Path path, OpenOption... options) throws IOException {
     checkPath(path);
-    return newOutputStream(path.toFile(), (options.length == 0) ? DEFAULT_NEW_OUTPUT_STREAM_OPTIONS : new SearchSet<OpenOption>(options));
+    invalidateCache(path);
+    final Set<? extends OpenOption> set = (options.length == 0) ? DEFAULT_NEW_OUTPUT_STREAM_OPTIONS : new SearchSet<OpenOption>(options);
+    if (isPreallocated(set))
+      return wrapOutputStream(set, Channels.newOutputStream(newByteChannel(path, set)));
+    return wrapOutputStream(set, newOutputStream(path.toFile(), set));
   }
 
   // TODO: LinkOption.NOFOLLOW_LINKS
@@ -204,7 +217,9 @@ public abstract class JavaFileSystemProvider extends AbstractUnixFileSystemProvi
   @Override
   public SeekableByteChannel newByteChannel (Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
     checkPath(path);
-    return newByteChannel(path.toFile(), options, attrs);
+    if (options.contains(StandardOpenOption.WRITE) && !options.contains(ExtendedOpenOption.CACHED))
+      invalidateCache(path);
+    return wrapByteChannel(path, options, newByteChannel(path.toFile(), options, attrs));
   }
 
   // TODO: LinkOption.NOFOLLOW_LINKS
@@ -440,6 +455,13 @@ public abstract class JavaFileSystemProvider extends AbstractUnixFileSystemProvi
   }
 
   protected final void copyFile (File source, File target) throws IOException {
+    copyFile(source, target, null);
+  }
+
+  /**
+   * Deletes the partial target upon failure.
+   */
+  protected final void copyFile (File source, File target, CopyProgress progress) throws IOException {
     final FileChannel in;
     try {
       in = new FileInputStream(source).getChannel();
@@ -450,19 +472,32 @@ public abstract class JavaFileSystemProvider extends AbstractUnixFileSystemProvi
     try {
       final FileChannel out;
       try {
-        out = new FileOutputStream(target).getChannel();
+        out = new RandomAccessFile(target, "rw").getChannel();
       }
       catch (IOException e) {
         throw toProperException(e, target.toString(), null);
       }
+      boolean success = false;
       try {
-        Utils.transfer(in, out);
+        final long size = in.size();
+        // allocate up front, since appending grows a fragmented file on FAT
+        if (out.size() > size)
+          out.truncate(size);
+        else if (size != 0)
+          out.write(ByteBuffer.allocate(1), size - 1);
+        final long copied = Utils.transfer(in, out, progress);
+        if (copied < size)
+          out.truncate(copied);
+        success = true;
       }
       catch (IOException e) {
         throw toProperException(e, source.toString(), target.toString());
       }
       finally {
         out.close();
+        if (!success)
+          //noinspection ResultOfMethodCallIgnored
+          target.delete();
       }
     }
     finally {
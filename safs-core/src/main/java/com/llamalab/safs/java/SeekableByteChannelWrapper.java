@@ -17,12 +17,13 @@
 package com.llamalab.safs.java;
 
 import com.llamalab.safs.channels.SeekableByteChannel;
+import com.llamalab.safs.internal.Mappable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
-final class SeekableByteChannelWrapper implements SeekableByteChannel {
+final class SeekableByteChannelWrapper implements SeekableByteChannel, Mappable {
 
   private final FileChannel fc;
   private final boolean append;
@@ -54,6 +55,43 @@ final class SeekableByteChannelWrapper implements SeekableByteChannel {
     return fc.write(src);
   }
 
+  @Override
+  public long read (ByteBuffer[] dsts) throws IOException {
+    return fc.read(dsts);
+  }
+
+  @Override
+  public long read (ByteBuffer[] dsts, int offset, int length) throws IOException {
+    return fc.read(dsts, offset, length);
+  }
+
+  @Override
+  public long write (ByteBuffer[] srcs) throws IOException {
+    return write(srcs, 0, srcs.length);
+  }
+
+  @Override
+  public long write (ByteBuffer[] srcs, int offset, int length) throws IOException {
+    if (append)
+      fc.position(fc.size());
+    return fc.write(srcs, offset, length);
+  }
+
+  @Override
+  public void force (boolean metaData) throws IOException {
+    fc.force(metaData);
+  }
+
+  @Override
+  public int read (ByteBuffer dst, long position) throws IOException {
+    return fc.read(dst, position);
+  }
+
+  @Override
+  public int write (ByteBuffer src, long position) throws IOException {
+    return fc.write(src, position);
+  }
+
   @Override
   public long position () throws IOException {
     return fc.position();
@@ -76,4 +114,9 @@ final class SeekableByteChannelWrapper implements SeekableByteChannel {
     return this;
   }
 
+  @Override
+  public ByteBuffer map (long position, long size) throws IOException {
+    return fc.map(FileChannel.MapMode.READ_ONLY, position, size);
+  }
+
 }
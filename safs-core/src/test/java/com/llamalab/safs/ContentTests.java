@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+import com.llamalab.safs.attributes.FileTime;
+import com.llamalab.safs.internal.DigestCache;
+import com.llamalab.safs.internal.Digests;
+import com.llamalab.safs.internal.Utils;
+
+import junit.framework.TestCase;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+public class ContentTests extends TestCase {
+
+  private Path dir;
+
+  @Override
+  protected void setUp () throws Exception {
+    dir = Files.createTempDirectory("safs");
+  }
+
+  @Override
+  protected void tearDown () throws Exception {
+    Files.walkFileTree(dir, Utils.DELETE_FILE_VISITOR);
+  }
+
+  public void testDigest () throws Throwable {
+    final byte[] data = pattern(Digests.TREE_CHUNK_SIZE + 5);
+    final Path file = Files.write(dir.resolve("file"), data);
+    final byte[] expected = MessageDigest.getInstance("SHA-256").digest(data);
+    assertTrue(Arrays.equals(expected, Files.digest(file, "SHA-256")));
+    assertTrue(Arrays.equals(expected, Files.digest(file, "SHA-256")));
+    final MessageDigest md = MessageDigest.getInstance("SHA-256");
+    md.update(MessageDigest.getInstance("SHA-256").digest(Arrays.copyOf(data, Digests.TREE_CHUNK_SIZE)));
+    md.update(MessageDigest.getInstance("SHA-256").digest(Arrays.copyOfRange(data, Digests.TREE_CHUNK_SIZE, data.length)));
+    assertTrue(Arrays.equals(md.digest(), Files.digest(file, "SHA-256", true)));
+    final Path cacheFile = dir.resolve("digests");
+    DigestCache.getInstance().store(cacheFile);
+    DigestCache.getInstance().clear();
+    DigestCache.getInstance().load(cacheFile);
+    data[0] = 1;
+    Files.write(file, data);
+    Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+    assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-256").digest(data), Files.digest(file, "SHA-256")));
+  }
+
+  public void testMismatch () throws Throwable {
+    final byte[] data = pattern(300 * 1024 + 3);
+    final Path a = Files.write(dir.resolve("a"), data);
+    final Path b = Files.write(dir.resolve("b"), data);
+    assertEquals(-1, Files.mismatch(a, b));
+    assertTrue(Files.isSameContent(a, b));
+    for (final int i : new int[] { 0, 100 * 1024 + 5, data.length - 1 }) {
+      final byte[] other = data.clone();
+      ++other[i];
+      Files.write(b, other);
+      assertEquals(i, Files.mismatch(a, b));
+      assertFalse(Files.isSameContent(a, b));
+    }
+    Files.write(b, Arrays.copyOf(data, 1000));
+    assertEquals(1000, Files.mismatch(a, b));
+    assertFalse(Files.isSameContent(a, b));
+  }
+
+  private static byte[] pattern (int length) {
+    final byte[] data = new byte[length];
+    for (int i = 0; i < data.length; ++i)
+      data[i] = (byte)(i * 7);
+    return data;
+  }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+import com.llamalab.safs.attributes.FileTime;
+import com.llamalab.safs.internal.DeltaCopy;
+import com.llamalab.safs.internal.ParallelCopy;
+import com.llamalab.safs.internal.ResumableCopy;
+import com.llamalab.safs.internal.Utils;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CopyTests extends TestCase {
+
+  private Path dir;
+
+  @Override
+  protected void setUp () throws Exception {
+    dir = Files.createTempDirectory("safs");
+  }
+
+  @Override
+  protected void tearDown () throws Exception {
+    Files.walkFileTree(dir, Utils.DELETE_FILE_VISITOR);
+  }
+
+  public void testCopyProgress () throws Throwable {
+    final Path source = Files.write(dir.resolve("source"), new byte[300 * 1024]);
+    final List<Long> copied = new ArrayList<Long>();
+    Files.copy(source, dir.resolve("target"), new CopyProgress(100 * 1024) {
+      @Override
+      protected void onProgress (long bytes, long total) {
+        assertEquals(300 * 1024, total);
+        copied.add(bytes);
+      }
+    });
+    assertEquals(Arrays.asList(100 * 1024L, 200 * 1024L, 300 * 1024L), copied);
+    try {
+      Files.copy(source, dir.resolve("cancelled"), new CopyProgress(100 * 1024) {
+        @Override
+        protected void onProgress (long bytes, long total) {
+          cancel();
+        }
+      });
+      fail();
+    }
+    catch (CopyCancelledException e) {
+      // expected
+    }
+    assertFalse(Files.exists(dir.resolve("cancelled")));
+  }
+
+  public void testResumableCopy () throws Throwable {
+    final byte[] data = pattern(2 * ResumableCopy.CHUNK_SIZE + 100);
+    final Path source = Files.write(dir.resolve("source"), data);
+    final Path target = dir.resolve("target");
+    try {
+      Files.copy(source, target, ExtendedCopyOption.RESUMABLE_VERIFIED, new CopyProgress() {
+        @Override
+        protected void onProgress (long copied, long total) {
+          cancel();
+        }
+      });
+      fail();
+    }
+    catch (CopyCancelledException e) {
+      // expected
+    }
+    assertEquals(ResumableCopy.CHUNK_SIZE, Files.size(target));
+    assertTrue(Files.exists(ResumableCopy.checkpointOf(target)));
+    // checkpoint of another source
+    try {
+      Files.copy(Files.write(dir.resolve("other"), new byte[10]), target, ExtendedCopyOption.RESUMABLE);
+      fail();
+    }
+    catch (FileAlreadyExistsException e) {
+      // expected
+    }
+    assertEquals(ResumableCopy.CHUNK_SIZE, Files.size(target));
+    final List<Long> copied = new ArrayList<Long>();
+    Files.copy(source, target, ExtendedCopyOption.RESUMABLE_VERIFIED, new CopyProgress() {
+      @Override
+      protected void onProgress (long bytes, long total) {
+        copied.add(bytes);
+      }
+    });
+    assertEquals(Arrays.asList(2L * ResumableCopy.CHUNK_SIZE, (long)data.length), copied);
+    assertFalse(Files.exists(ResumableCopy.checkpointOf(target)));
+    assertTrue(Arrays.equals(data, Files.readAllBytes(target)));
+    // renamed, so modified time is kept
+    final FileTime lastModified = FileTime.fromMillis(1000000000000L);
+    Files.setLastModifiedTime(target, lastModified);
+    final Path moved = Files.move(target, dir.resolve("moved"), ExtendedCopyOption.RESUMABLE);
+    assertFalse(Files.exists(target));
+    assertEquals(lastModified, Files.getLastModifiedTime(moved));
+    assertTrue(Arrays.equals(data, Files.readAllBytes(moved)));
+  }
+
+  public void testParallelCopy () throws Throwable {
+    final byte[] data = pattern((int)(2 * ParallelCopy.MIN_SEGMENT_SIZE + 3));
+    final Path source = Files.write(dir.resolve("source"), data);
+    final Path target = Files.write(dir.resolve("target"), new byte[10]);
+    Files.copy(source, target, ExtendedCopyOption.PARALLEL, StandardCopyOption.REPLACE_EXISTING);
+    assertTrue(Arrays.equals(data, Files.readAllBytes(target)));
+    assertEquals(2, Utils.listOf(Files.newDirectoryStream(dir)).size());
+  }
+
+  public void testDeltaCopy () throws Throwable {
+    final byte[] data = pattern(3 * 1024 * 1024 + 100);
+    final Path source = dir.resolve("source");
+    final Path target = Files.write(dir.resolve("target"), data);
+    data[5] = 0;
+    data[2 * 1024 * 1024 + 3] = 0;
+    final byte[] longer = Arrays.copyOf(data, data.length + 10);
+    Files.write(source, longer);
+    assertEquals(2 * DeltaCopy.BLOCK_SIZE + 110, DeltaCopy.copy(source, target, StandardCopyOption.REPLACE_EXISTING));
+    assertTrue(Arrays.equals(longer, Files.readAllBytes(target)));
+    final byte[] shorter = Arrays.copyOf(data, 1000);
+    Files.write(source, shorter);
+    Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, ExtendedCopyOption.DELTA);
+    assertTrue(Arrays.equals(shorter, Files.readAllBytes(target)));
+  }
+
+  private static byte[] pattern (int length) {
+    final byte[] data = new byte[length];
+    for (int i = 0; i < data.length; ++i)
+      data[i] = (byte)(i * 7);
+    return data;
+  }
+
+}
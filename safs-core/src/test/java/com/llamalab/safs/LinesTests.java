@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+import com.llamalab.safs.channels.ChunkProcessor;
+import com.llamalab.safs.channels.LineIndex;
+import com.llamalab.safs.channels.SeekableByteChannel;
+import com.llamalab.safs.internal.Utils;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class LinesTests extends TestCase {
+
+  private Path dir;
+
+  @Override
+  protected void setUp () throws Exception {
+    dir = Files.createTempDirectory("safs");
+  }
+
+  @Override
+  protected void tearDown () throws Exception {
+    Files.walkFileTree(dir, Utils.DELETE_FILE_VISITOR);
+  }
+
+  public void testLines () throws Throwable {
+    final Path file = dir.resolve("file");
+    Files.write(file, "a\r\nb\u00e5\rc\n\nd".getBytes(Utils.UTF_8));
+    assertEquals(Arrays.asList("a", "b\u00e5", "c", "", "d"), Files.readAllLines(file));
+    final List<String> lines = new ArrayList<String>();
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 200 * 1024; ++i)
+      sb.append((char)('a' + i % 26));
+    lines.add(sb.toString());
+    lines.add("x");
+    Files.write(file, lines);
+    assertEquals(lines, Files.readAllLines(file));
+    for (int i = 0; lines.size() < 200000; ++i)
+      lines.add((i % 7 == 0) ? "\u00e4" + i : Integer.toString(i));
+    for (final Charset charset : new Charset[] { Utils.UTF_8, Charset.forName("UTF-16") }) {
+      Files.write(file, lines, charset);
+      assertEquals(lines, Files.readAllLines(file, charset));
+      final LineStream stream = Files.lines(file, charset);
+      try {
+        assertEquals(lines, Utils.listOf(stream));
+      }
+      finally {
+        stream.close();
+      }
+    }
+  }
+
+  public void testLineIndex () throws Throwable {
+    final Path file = dir.resolve("file");
+    final StringBuilder sb = new StringBuilder();
+    final List<Long> offsets = new ArrayList<Long>();
+    final String[] terminators = { "\n", "\r\n", "\r" };
+    for (int i = 0; i < 1000; ++i) {
+      offsets.add((long)sb.length());
+      sb.append(i).append(terminators[i % 3]);
+    }
+    offsets.add((long)sb.length());
+    sb.append("last");
+    Files.write(file, sb.toString().getBytes(Utils.US_ASCII));
+    final LineIndex index = LineIndex.of(file, 7);
+    assertEquals(1001, index.lineCount());
+    assertTrue(Files.exists(LineIndex.indexOf(file)));
+    final SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ);
+    try {
+      for (int i = 0; i <= 1000; ++i)
+        assertEquals(offsets.get(i).longValue(), index.offsetOf(channel, i));
+    }
+    finally {
+      channel.close();
+    }
+    final LineStream lines = LineIndex.of(file, 7).lines(file, 500, Utils.US_ASCII);
+    try {
+      assertEquals("500", lines.readLine());
+      assertEquals("501", lines.readLine());
+    }
+    finally {
+      lines.close();
+    }
+  }
+
+  public void testChunkProcessor () throws Throwable {
+    final Path file = dir.resolve("file");
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 200000; ++i)
+      sb.append(i).append("\r\n");
+    Files.write(file, sb.toString().getBytes(Utils.US_ASCII));
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    final List<Long> result;
+    try {
+      result = ChunkProcessor.process(file, new byte[] { '\r', '\n' }, 4, executor,
+          new ChunkProcessor.Mapper<List<Long>>() {
+            @Override
+            public List<Long> map (ByteBuffer chunk, long offset) {
+              final List<Long> numbers = new ArrayList<Long>();
+              long n = 0;
+              while (chunk.hasRemaining()) {
+                final byte b = chunk.get();
+                if (b == '\n') {
+                  numbers.add(n);
+                  n = 0;
+                }
+                else if (b != '\r')
+                  n = n * 10 + (b - '0');
+              }
+              return numbers;
+            }
+          },
+          new ChunkProcessor.Reducer<List<Long>>() {
+            @Override
+            public List<Long> reduce (List<Long> a, List<Long> b) {
+              final List<Long> c = new ArrayList<Long>(a);
+              c.addAll(b);
+              return c;
+            }
+          },
+          new ArrayList<Long>());
+    }
+    finally {
+      executor.shutdown();
+    }
+    assertEquals(200000, result.size());
+    for (int i = 0; i < result.size(); ++i)
+      assertEquals(i, result.get(i).longValue());
+  }
+
+}
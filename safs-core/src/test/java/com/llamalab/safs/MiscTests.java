@@ -17,10 +17,17 @@
 package com.llamalab.safs;
 
 import com.llamalab.safs.attributes.FileTime;
+import com.llamalab.safs.internal.BufferPool;
+import com.llamalab.safs.internal.LongHashMap;
+import com.llamalab.safs.internal.PipelinedTransfer;
 import com.llamalab.safs.internal.Utils;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.Locale;
@@ -53,6 +60,46 @@ public class MiscTests extends TestCase {
   }
 
 
+  public void testReadAllBytes () throws Throwable {
+    final byte[] data = new byte[200 * 1024 + 3];
+    for (int i = 0; i < data.length; ++i)
+      data[i] = (byte)i;
+    assertTrue(Arrays.equals(data, Utils.readAllBytes(new ByteArrayInputStream(data), 100)));
+    assertTrue(Arrays.equals(data, Utils.readAllBytes(new ByteArrayInputStream(data), data.length)));
+    assertTrue(Arrays.equals(Arrays.copyOf(data, 10), Utils.readAllBytes(new ByteArrayInputStream(data, 0, 10), 100)));
+  }
+
+  public void testPipelinedTransfer () throws Throwable {
+    final byte[] data = new byte[3 * 1024 * 1024 + 5];
+    for (int i = 0; i < data.length; ++i)
+      data[i] = (byte)(i * 13);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(data.length, PipelinedTransfer.transfer(new ByteArrayInputStream(data), out, -1, null));
+    assertTrue(Arrays.equals(data, out.toByteArray()));
+  }
+
+  public void testLongHashMap () {
+    final LongHashMap<String> map = new LongHashMap<String>(2);
+    for (long k = -1000; k < 1000; ++k)
+      assertNull(map.put(k << 32, Long.toString(k)));
+    assertEquals("7", map.put(7L << 32, "x"));
+    assertEquals(2000, map.size());
+    assertEquals(2000, map.values().size());
+    assertEquals("-3", map.get(-3L << 32));
+    assertEquals("x", map.get(7L << 32));
+    assertNull(map.get(1));
+  }
+
+  public void testBufferPool () {
+    final BufferPool pool = BufferPool.getInstance();
+    final ByteBuffer buf = pool.acquire(5000, true);
+    assertTrue(buf.isDirect());
+    assertEquals(8192, buf.capacity());
+    assertEquals(5000, buf.limit());
+    pool.release(buf);
+    assertSame(buf, pool.acquire(8000, true));
+  }
+
   public void testGlob () {
 
     assertMatches(   compileGlob("foo"), "foo");
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+import com.llamalab.safs.channels.ByteRange;
+import com.llamalab.safs.channels.DurableAppender;
+import com.llamalab.safs.channels.SeekableByteChannel;
+import com.llamalab.safs.internal.Utils;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+public class SeekableByteChannelTests extends TestCase {
+
+  private Path dir;
+
+  @Override
+  protected void setUp () throws Exception {
+    dir = Files.createTempDirectory("safs");
+  }
+
+  @Override
+  protected void tearDown () throws Exception {
+    Files.walkFileTree(dir, Utils.DELETE_FILE_VISITOR);
+  }
+
+  public void testPositional () throws Throwable {
+    final Path file = Files.write(dir.resolve("file"), "0123456789".getBytes(Utils.US_ASCII));
+    final SeekableByteChannel ch = Files.newByteChannel(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      ch.position(2);
+      final ByteBuffer buf = ByteBuffer.allocate(3);
+      assertEquals(3, ch.read(buf, 5));
+      assertEquals("567", new String(buf.array(), Utils.US_ASCII));
+      assertEquals(2, ch.position());
+      assertEquals(2, ch.write(ByteBuffer.wrap("ab".getBytes(Utils.US_ASCII)), 8));
+      assertEquals(2, ch.position());
+      buf.clear();
+      assertEquals(-1, ch.read(buf, 10));
+    }
+    finally {
+      ch.close();
+    }
+    assertEquals("01234567ab", new String(Files.readAllBytes(file), Utils.US_ASCII));
+  }
+
+  public void testScatterGather () throws Throwable {
+    final Path file = dir.resolve("file");
+    final SeekableByteChannel ch = Files.newByteChannel(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+    try {
+      assertEquals(6, ch.write(new ByteBuffer[] {
+          ByteBuffer.wrap("abc".getBytes(Utils.US_ASCII)),
+          ByteBuffer.wrap("def".getBytes(Utils.US_ASCII)) }));
+      assertEquals(6, ch.position());
+      ch.position(0);
+      final ByteBuffer a = ByteBuffer.allocate(2);
+      final ByteBuffer b = ByteBuffer.allocate(4);
+      assertEquals(6, ch.read(new ByteBuffer[] { a, b }));
+      assertEquals("ab", new String(a.array(), Utils.US_ASCII));
+      assertEquals("cdef", new String(b.array(), Utils.US_ASCII));
+    }
+    finally {
+      ch.close();
+    }
+  }
+
+  public void testReadRanges () throws Throwable {
+    final Path file = Files.write(dir.resolve("file"), "0123456789".getBytes(Utils.US_ASCII));
+    final List<ByteBuffer> bufs = Files.readRanges(file, Arrays.asList(
+        new ByteRange(7, 2), new ByteRange(0, 3), new ByteRange(2, 2), new ByteRange(8, 5)));
+    assertEquals(4, bufs.size());
+    assertEquals("78", toString(bufs.get(0)));
+    assertEquals("012", toString(bufs.get(1)));
+    assertEquals("23", toString(bufs.get(2)));
+    assertEquals("89", toString(bufs.get(3)));
+  }
+
+  public void testCached () throws Throwable {
+    final Path file = Files.write(dir.resolve("file"), "0123456789".getBytes(Utils.US_ASCII));
+    SeekableByteChannel ch = Files.newByteChannel(file, StandardOpenOption.READ, ExtendedOpenOption.CACHED);
+    try {
+      final ByteBuffer buf = ByteBuffer.allocate(4);
+      assertEquals(4, ch.read(buf, 3));
+      assertEquals("3456", new String(buf.array(), Utils.US_ASCII));
+    }
+    finally {
+      ch.close();
+    }
+    Files.write(file, "abcdefghij".getBytes(Utils.US_ASCII));
+    ch = Files.newByteChannel(file, StandardOpenOption.READ, StandardOpenOption.WRITE, ExtendedOpenOption.CACHED);
+    try {
+      final ByteBuffer buf = ByteBuffer.allocate(4);
+      assertEquals(4, ch.read(buf, 3));
+      assertEquals("defg", new String(buf.array(), Utils.US_ASCII));
+      assertEquals(1, ch.write(ByteBuffer.wrap("X".getBytes(Utils.US_ASCII)), 4));
+      buf.clear();
+      assertEquals(4, ch.read(buf, 3));
+      assertEquals("dXfg", new String(buf.array(), Utils.US_ASCII));
+      assertEquals(10, ch.size());
+    }
+    finally {
+      ch.close();
+    }
+  }
+
+  public void testReadAhead () throws Throwable {
+    final byte[] data = new byte[300 * 1024 + 17];
+    for (int i = 0; i < data.length; ++i)
+      data[i] = (byte)(i * 31);
+    final Path file = Files.write(dir.resolve("file"), data);
+    final SeekableByteChannel ch = Files.newByteChannel(file, StandardOpenOption.READ, ExtendedOpenOption.WILL_NEED);
+    try {
+      final ByteBuffer all = ByteBuffer.allocate(data.length);
+      final ByteBuffer buf = ByteBuffer.allocate(1000);
+      while (ch.read(buf) != -1) {
+        buf.flip();
+        all.put(buf);
+        buf.clear();
+      }
+      assertTrue(Arrays.equals(data, all.array()));
+      ch.position(12345);
+      buf.clear();
+      assertEquals(1000, ch.read(buf));
+      assertTrue(Arrays.equals(Arrays.copyOfRange(data, 12345, 13345), buf.array()));
+    }
+    finally {
+      ch.close();
+    }
+  }
+
+  public void testBuffered () throws Throwable {
+    final Path file = Files.write(dir.resolve("file"), "0123456789".getBytes(Utils.US_ASCII));
+    final SeekableByteChannel ch = Files.newByteChannel(file, StandardOpenOption.READ, StandardOpenOption.WRITE, ExtendedOpenOption.BUFFERED);
+    try {
+      ch.position(8);
+      for (final char c : "abcd".toCharArray())
+        assertEquals(1, ch.write(ByteBuffer.wrap(new byte[] { (byte)c })));
+      assertEquals(12, ch.position());
+      assertEquals(12, ch.size());
+      final ByteBuffer buf = ByteBuffer.allocate(4);
+      assertEquals(4, ch.read(buf, 7));
+      assertEquals("7abc", new String(buf.array(), Utils.US_ASCII));
+      ch.truncate(10);
+      assertEquals(10, ch.size());
+      assertEquals(10, ch.position());
+      buf.clear();
+      assertEquals(-1, ch.read(buf));
+    }
+    finally {
+      ch.close();
+    }
+    assertEquals("01234567ab", new String(Files.readAllBytes(file), Utils.US_ASCII));
+    final InputStream in = Files.newInputStream(file, ExtendedOpenOption.BUFFERED);
+    try {
+      assertTrue(in instanceof BufferedInputStream);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  public void testDurableAppender () throws Throwable {
+    final Path file = Files.write(dir.resolve("file"), "head".getBytes(Utils.US_ASCII));
+    final DurableAppender appender = new DurableAppender(file);
+    final List<Future<Long>> futures = new ArrayList<Future<Long>>();
+    try {
+      for (int i = 0; i < 100; ++i)
+        futures.add(appender.append(ByteBuffer.wrap(new byte[] { (byte)i, (byte)i })));
+      for (int i = 0; i < 100; ++i)
+        assertEquals(4 + 2 * i, (long)futures.get(i).get());
+    }
+    finally {
+      appender.close();
+    }
+    final byte[] bytes = Files.readAllBytes(file);
+    assertEquals(204, bytes.length);
+    assertEquals(99, bytes[203]);
+  }
+
+  public void testPreallocate () throws Throwable {
+    final Path file = dir.resolve("file");
+    final SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW, PreallocateOpenOption.of(4096));
+    try {
+      channel.write(ByteBuffer.wrap("abc".getBytes(Utils.US_ASCII)));
+      assertEquals(3, channel.size());
+    }
+    finally {
+      channel.close();
+    }
+    assertEquals(3, Files.size(file));
+    final OutputStream out = Files.newOutputStream(file, StandardOpenOption.WRITE, PreallocateOpenOption.of(4096));
+    try {
+      out.write('d');
+    }
+    finally {
+      out.close();
+    }
+    assertEquals("dbc", new String(Files.readAllBytes(file), Utils.US_ASCII));
+  }
+
+  public void testReadByteBuffer () throws Throwable {
+    final Path file = Files.write(dir.resolve("file"), "abc".getBytes(Utils.US_ASCII));
+    assertEquals("abc", toString(Files.readByteBuffer(file, false)));
+    assertEquals("abc", toString(Files.readByteBuffer(file, true)));
+    Files.write(dir.resolve("empty"), new byte[0]);
+    assertEquals(0, Files.readAllBytes(dir.resolve("empty")).length);
+  }
+
+  private static String toString (ByteBuffer buf) {
+    final byte[] bytes = new byte[buf.remaining()];
+    buf.get(bytes);
+    return new String(bytes, Utils.US_ASCII);
+  }
+
+}
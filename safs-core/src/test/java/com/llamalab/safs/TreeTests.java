@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+import com.llamalab.safs.attributes.FileTime;
+import com.llamalab.safs.internal.Utils;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TreeTests extends TestCase {
+
+  private Path dir;
+
+  @Override
+  protected void setUp () throws Exception {
+    dir = Files.createTempDirectory("safs");
+  }
+
+  @Override
+  protected void tearDown () throws Exception {
+    Files.walkFileTree(dir, Utils.DELETE_FILE_VISITOR);
+  }
+
+  public void testDuplicateFinder () throws Throwable {
+    final byte[] data = new byte[3 * DuplicateFinder.PARTIAL_BLOCK_SIZE];
+    final Path a = Files.write(dir.resolve("a"), data);
+    Files.createDirectory(dir.resolve("sub"));
+    final Path b = Files.write(dir.resolve("sub/b"), data);
+    data[DuplicateFinder.PARTIAL_BLOCK_SIZE + 1] = 1;
+    Files.write(dir.resolve("c"), data);
+    final Path d = Files.write(dir.resolve("d"), "small".getBytes(Utils.US_ASCII));
+    final Path e = Files.write(dir.resolve("e"), "small".getBytes(Utils.US_ASCII));
+    Files.write(dir.resolve("f"), "other".getBytes(Utils.US_ASCII));
+    final List<List<Path>> groups = new DuplicateFinder().find(dir);
+    assertEquals(2, groups.size());
+    final Set<Set<Path>> expected = new HashSet<Set<Path>>();
+    expected.add(new HashSet<Path>(Arrays.asList(a, b)));
+    expected.add(new HashSet<Path>(Arrays.asList(d, e)));
+    final Set<Set<Path>> actual = new HashSet<Set<Path>>();
+    for (final List<Path> group : groups)
+      actual.add(new HashSet<Path>(group));
+    assertEquals(expected, actual);
+  }
+
+  public void testTreeSnapshot () throws Throwable {
+    final Path root = Files.createDirectory(dir.resolve("root"));
+    Files.createDirectory(root.resolve("sub"));
+    Files.write(root.resolve("sub/a"), new byte[1]);
+    Files.write(root.resolve("b"), new byte[1]);
+    Files.createDirectory(root.resolve("gone"));
+    Files.write(root.resolve("gone/c"), new byte[1]);
+    final TreeSnapshot snapshot = TreeSnapshot.take(root);
+    assertEquals(6, snapshot.size());
+    final Path file = dir.resolve("snapshot");
+    snapshot.write(file);
+    Files.write(root.resolve("sub/a"), new byte[2]);
+    Files.write(root.resolve("sub/d"), new byte[1]);
+    Files.delete(root.resolve("gone/c"));
+    Files.delete(root.resolve("gone"));
+    assertEquals(keys("MODIFIED sub/a", "CREATED sub/d", "DELETED gone", "DELETED gone/c"), changes(root, TreeSnapshot.read(file).diff()));
+    assertTrue(snapshot.diff(snapshot).isEmpty());
+  }
+
+  public void testTreeSnapshotListingReuse () throws Throwable {
+    final Path root = Files.createDirectory(dir.resolve("root"));
+    final Path sub = Files.createDirectory(root.resolve("sub"));
+    Files.write(sub.resolve("a"), new byte[1]);
+    Files.write(sub.resolve("b"), new byte[1]);
+    // old enough for the listings to be reused
+    final FileTime backdated = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+    Files.setLastModifiedTime(sub, backdated);
+    Files.setLastModifiedTime(root, backdated);
+    final TreeSnapshot snapshot = TreeSnapshot.take(root);
+    Files.write(sub.resolve("a"), new byte[2]);
+    assertEquals(keys("MODIFIED sub/a"), changes(root, snapshot.diff()));
+    // reused listing with an entry gone, so listed after all
+    Files.delete(sub.resolve("b"));
+    Files.setLastModifiedTime(sub, backdated);
+    assertEquals(keys("MODIFIED sub/a", "DELETED sub/b"), changes(root, snapshot.diff()));
+  }
+
+  public void testTreeSync () throws Throwable {
+    final Path source = Files.createDirectory(dir.resolve("source"));
+    final Path target = dir.resolve("target");
+    Files.createDirectory(source.resolve("sub"));
+    Files.write(source.resolve("sub/a"), "a".getBytes(Utils.US_ASCII));
+    Files.write(source.resolve("b"), "b".getBytes(Utils.US_ASCII));
+    Files.write(source.resolve("skip.tmp"), new byte[1]);
+    final TreeSync sync = new TreeSync(source, target);
+    sync.addExclude(source.getFileSystem().getPathMatcher("glob:**.tmp"));
+    sync.setDelete(true);
+    sync.setDryRun(true);
+    assertEquals(4, sync.sync().size());
+    assertFalse(Files.exists(target));
+    sync.setDryRun(false);
+    assertEquals(4, sync.sync().size());
+    assertEquals("a", new String(Files.readAllBytes(target.resolve("sub/a")), Utils.US_ASCII));
+    assertFalse(Files.exists(target.resolve("skip.tmp")));
+    assertTrue(sync.sync().isEmpty());
+    Files.write(source.resolve("b"), "bb".getBytes(Utils.US_ASCII));
+    Files.write(target.resolve("extra"), new byte[1]);
+    final List<TreeSync.Action> actions = sync.sync();
+    assertEquals(2, actions.size());
+    assertEquals("bb", new String(Files.readAllBytes(target.resolve("b")), Utils.US_ASCII));
+    assertFalse(Files.exists(target.resolve("extra")));
+    // excluded entries are kept inside deleted or replaced directories
+    Files.createDirectories(target.resolve("old/sub"));
+    Files.write(target.resolve("old/sub/c"), new byte[1]);
+    Files.createDirectory(target.resolve("kept"));
+    Files.write(target.resolve("kept/c"), new byte[1]);
+    Files.write(target.resolve("kept/keep.tmp"), new byte[1]);
+    Files.write(source.resolve("replaced"), new byte[1]);
+    Files.createDirectory(target.resolve("replaced"));
+    Files.write(target.resolve("replaced/keep.tmp"), new byte[1]);
+    assertEquals(4, sync.sync().size());
+    assertFalse(Files.exists(target.resolve("old")));
+    assertFalse(Files.exists(target.resolve("kept/c")));
+    assertTrue(Files.exists(target.resolve("kept/keep.tmp")));
+    assertTrue(Files.exists(target.resolve("replaced/keep.tmp")));
+    // a link in the source never replaces a directory in the target
+    if (createSymbolicLink(source.resolve("link"), "b")) {
+      Files.createDirectory(target.resolve("link"));
+      Files.write(target.resolve("link/c"), new byte[1]);
+      sync.setDelete(false);
+      assertTrue(sync.sync().isEmpty());
+      assertTrue(Files.exists(target.resolve("link/c")));
+      Files.delete(source.resolve("link"));
+    }
+  }
+
+  private static Set<String> keys (String... keys) {
+    return new HashSet<String>(Arrays.asList(keys));
+  }
+
+  private static Set<String> changes (Path root, List<TreeSnapshot.Change> changes) {
+    final Set<String> result = new HashSet<String>();
+    for (final TreeSnapshot.Change change : changes)
+      result.add(change.kind() + " " + root.relativize(change.path()));
+    return result;
+  }
+
+  /**
+   * Through java.nio.file, when available, since the providers can't create links.
+   * @return false if not supported.
+   */
+  private static boolean createSymbolicLink (Path link, String target) {
+    try {
+      final Method get = Class.forName("java.nio.file.Paths").getMethod("get", String.class, String[].class);
+      final Object attrs = Array.newInstance(Class.forName("java.nio.file.attribute.FileAttribute"), 0);
+      Class.forName("java.nio.file.Files")
+          .getMethod("createSymbolicLink", Class.forName("java.nio.file.Path"), Class.forName("java.nio.file.Path"), attrs.getClass())
+          .invoke(null, get.invoke(null, link.toString(), new String[0]), get.invoke(null, target, new String[0]), attrs);
+      return true;
+    }
+    catch (Exception e) {
+      return false;
+    }
+  }
+
+}
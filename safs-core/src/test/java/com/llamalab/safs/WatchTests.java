@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2019 Henrik Lindqvist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.llamalab.safs;
+
+import com.llamalab.safs.channels.FollowingByteChannel;
+import com.llamalab.safs.internal.AbstractWatchKey;
+import com.llamalab.safs.internal.AbstractWatchService;
+import com.llamalab.safs.internal.Utils;
+
+import junit.framework.TestCase;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class WatchTests extends TestCase {
+
+  private static final WatchEvent.Kind<?>[] ENTRY_KINDS = {
+      StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY
+  };
+
+  private Path dir;
+  private TestWatchService service;
+
+  @Override
+  protected void setUp () throws Exception {
+    dir = Files.createTempDirectory("safs");
+    service = new TestWatchService();
+  }
+
+  @Override
+  protected void tearDown () throws Exception {
+    service.close();
+    Files.walkFileTree(dir, Utils.DELETE_FILE_VISITOR);
+  }
+
+  public void testDebounce () throws Throwable {
+    final TestWatchKey key = new TestWatchKey(service, dir, 512);
+    key.applyModifiers(ENTRY_KINDS, DebounceWatchEventModifier.of(100, 1000, TimeUnit.MILLISECONDS));
+    for (int i = 0; i < 3; ++i)
+      key.signal(StandardWatchEventKinds.ENTRY_MODIFY, name("a"));
+    key.signal(StandardWatchEventKinds.ENTRY_CREATE, name("b"));
+    assertNull(service.poll());
+    final Map<String,Integer> counts = new HashMap<String,Integer>();
+    while (counts.size() < 2) {
+      assertSame(key, service.poll(2, TimeUnit.SECONDS));
+      counts.putAll(counts(key.pollEvents()));
+      key.reset();
+    }
+    assertEquals(3, (int)counts.get("ENTRY_MODIFY a"));
+    assertEquals(1, (int)counts.get("ENTRY_CREATE b"));
+  }
+
+  public void testDebounceMaxLatency () throws Throwable {
+    final TestWatchKey key = new TestWatchKey(service, dir, 512);
+    key.applyModifiers(ENTRY_KINDS, DebounceWatchEventModifier.of(100, 300, TimeUnit.MILLISECONDS));
+    // never quiet, released by max latency
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    WatchKey signalled = null;
+    while (signalled == null && System.nanoTime() < deadline) {
+      key.signal(StandardWatchEventKinds.ENTRY_MODIFY, name("a"));
+      Thread.sleep(20);
+      signalled = service.poll();
+    }
+    assertSame(key, signalled);
+    final List<WatchEvent<?>> events = key.pollEvents();
+    assertEquals(1, events.size());
+    assertTrue(events.get(0).count() > 1);
+  }
+
+  public void testRescan () throws Throwable {
+    final Path x = Files.write(dir.resolve("x"), new byte[1]);
+    final Path gone = Files.write(dir.resolve("gone"), new byte[1]);
+    final TestWatchKey key = new TestWatchKey(service, dir, 4);
+    key.applyModifiers(ENTRY_KINDS, OverflowWatchEventModifier.RESCAN);
+    Files.write(x, new byte[2]);
+    key.signal(StandardWatchEventKinds.ENTRY_MODIFY, name("x"));
+    assertSame(key, service.poll());
+    assertEquals(keys("ENTRY_MODIFY x"), counts(key.pollEvents()).keySet());
+    key.reset();
+    // overflow, then changes with lost events
+    for (int i = 0; i < 5; ++i) {
+      Files.write(dir.resolve("f" + i), new byte[1]);
+      key.signal(StandardWatchEventKinds.ENTRY_CREATE, name("f" + i));
+    }
+    Files.write(x, new byte[3]);
+    Files.delete(gone);
+    Files.write(dir.resolve("new"), new byte[1]);
+    assertSame(key, service.poll());
+    assertEquals(keys("ENTRY_CREATE f0", "ENTRY_CREATE f1", "ENTRY_CREATE f2", "ENTRY_CREATE f3", "ENTRY_CREATE f4",
+        "ENTRY_CREATE new", "ENTRY_DELETE gone", "ENTRY_MODIFY x"), counts(key.pollEvents()).keySet());
+  }
+
+  public void testRescanUnregisteredKinds () throws Throwable {
+    final Path y = Files.write(dir.resolve("y"), new byte[1]);
+    final WatchEvent.Kind<?>[] kinds = { StandardWatchEventKinds.ENTRY_CREATE };
+    final TestWatchKey key = new TestWatchKey(service, dir, 2);
+    key.applyModifiers(kinds, OverflowWatchEventModifier.RESCAN);
+    assertEquals(3, key.observedKinds(kinds).length);
+    // only tracked
+    Files.delete(y);
+    key.signal(StandardWatchEventKinds.ENTRY_DELETE, name("y"));
+    assertNull(service.poll());
+    for (int i = 0; i < 3; ++i) {
+      Files.write(dir.resolve("f" + i), new byte[1]);
+      key.signal(StandardWatchEventKinds.ENTRY_CREATE, name("f" + i));
+    }
+    Files.write(y, new byte[1]);
+    assertSame(key, service.poll());
+    assertEquals(keys("ENTRY_CREATE f0", "ENTRY_CREATE f1", "ENTRY_CREATE f2", "ENTRY_CREATE y"), counts(key.pollEvents()).keySet());
+  }
+
+  public void testFollow () throws Throwable {
+    final Path file = Files.write(dir.resolve("log"), "abc".getBytes(Utils.US_ASCII));
+    final FollowingByteChannel channel = Files.follow(file, 1);
+    try {
+      final ByteBuffer buf = ByteBuffer.allocate(16);
+      assertEquals(2, channel.read(buf));
+      final Later append = new Later(channel) {
+        @Override
+        protected void run0 () throws Exception {
+          Files.write(file, "de".getBytes(Utils.US_ASCII), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+      };
+      buf.clear();
+      assertEquals(2, channel.read(buf));
+      assertEquals("de", new String(buf.array(), 0, 2, Utils.US_ASCII));
+      append.await();
+      final Later close = new Later(channel) {
+        @Override
+        protected void run0 () throws Exception {
+          channel.close();
+        }
+      };
+      buf.clear();
+      try {
+        channel.read(buf);
+        fail();
+      }
+      catch (AsynchronousCloseException e) {
+        // expected
+      }
+      close.await();
+      assertFalse(channel.isOpen());
+      assertFalse(Thread.interrupted());
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  private Path name (String name) {
+    return dir.getFileSystem().getPath(name);
+  }
+
+  private static Set<String> keys (String... keys) {
+    return new HashSet<String>(Arrays.asList(keys));
+  }
+
+  private static Map<String,Integer> counts (List<WatchEvent<?>> events) {
+    final Map<String,Integer> counts = new HashMap<String,Integer>();
+    for (final WatchEvent<?> event : events)
+      counts.put(event.kind().name() + " " + event.context(), event.count());
+    return counts;
+  }
+
+  /**
+   * Runs on another thread, while the test blocks on the channel, closed on failure.
+   */
+  private static abstract class Later extends Thread {
+
+    private final Closeable channel;
+    private volatile Throwable failure;
+
+    Later (Closeable channel) {
+      this.channel = channel;
+      start();
+    }
+
+    @Override
+    public final void run () {
+      try {
+        Thread.sleep(300);
+        run0();
+      }
+      catch (Throwable t) {
+        failure = t;
+        Utils.closeQuietly(channel);
+      }
+    }
+
+    protected abstract void run0 () throws Exception;
+
+    public void await () throws InterruptedException {
+      join();
+      if (failure != null)
+        throw new AssertionError(failure);
+    }
+
+  } // class Later
+
+  private static final class TestWatchService extends AbstractWatchService {
+
+    @Override
+    protected void implCloseService () {
+    }
+
+  } // class TestWatchService
+
+  private static final class TestWatchKey extends AbstractWatchKey {
+
+    public TestWatchKey (AbstractWatchService service, Watchable watchable, int overflowLimit) {
+      super(service, watchable, overflowLimit);
+    }
+
+    @Override
+    public void cancel () {
+    }
+
+    <T> void signal (WatchEvent.Kind<T> kind, T context) {
+      signalEvent(kind, context);
+    }
+
+  } // class TestWatchKey
+
+}